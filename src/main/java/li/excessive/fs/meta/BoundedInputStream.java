@@ -0,0 +1,87 @@
+package li.excessive.fs.meta;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * input stream that signals end of stream once a given number of bytes has been read.
+ * used to feed only the header part of a file to the meta data parser.
+ */
+public class BoundedInputStream extends FilterInputStream {
+
+	private final long limit;
+	
+	private long position = 0;
+	
+	private long mark = 0;
+	
+	/**
+	 * @param in stream to read from
+	 * @param limit maximum number of bytes to read, a value &lt;= 0 means unbounded
+	 */
+	public BoundedInputStream(InputStream in, long limit) {
+		super(in);
+		this.limit = limit;
+	}
+	
+	/**
+	 * @return true if the stream has been cut off, i.e. the parser might not have seen the whole file
+	 */
+	public boolean isLimitReached() {
+		return limit > 0 && position >= limit;
+	}
+	
+	private long remaining() {
+		return limit > 0 ? limit - position : Long.MAX_VALUE;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if(remaining() <= 0) {
+			return -1;
+		}
+		int b = super.read();
+		if(b >= 0) {
+			position++;
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(remaining() <= 0) {
+			return -1;
+		}
+		int n = super.read(b, off, (int)Math.min(len, remaining()));
+		if(n > 0) {
+			position += n;
+		}
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(Math.min(n, remaining()));
+		position += skipped;
+		return skipped;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return (int)Math.min(super.available(), remaining());
+	}
+	
+	@Override
+	public synchronized void mark(int readlimit) {
+		super.mark(readlimit);
+		mark = position;
+	}
+	
+	@Override
+	public synchronized void reset() throws IOException {
+		super.reset();
+		position = mark;
+	}
+
+}
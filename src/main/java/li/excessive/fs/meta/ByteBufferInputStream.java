@@ -0,0 +1,65 @@
+package li.excessive.fs.meta;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * input stream reading the remaining content of a buffer, e.g. a memory mapped file
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+	
+	/**
+	 * @param buffer buffer to read from, the position of the given buffer is left unchanged
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+	}
+	
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if(len == 0) {
+			return 0;
+		}
+		if(!buffer.hasRemaining()) {
+			return -1;
+		}
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) {
+		int skip = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skip);
+		return skip;
+	}
+	
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	@Override
+	public synchronized void mark(int readlimit) {
+		buffer.mark();
+	}
+	
+	@Override
+	public synchronized void reset() {
+		buffer.reset();
+	}
+
+}
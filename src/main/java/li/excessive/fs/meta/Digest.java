@@ -0,0 +1,24 @@
+package li.excessive.fs.meta;
+
+/**
+ * digests (hash values and checksums) that can be computed by the {@link DigestEngine}
+ */
+public enum Digest {
+	
+	MD5("MD5"),
+	SHA1("SHA-1"),
+	SHA256("SHA-256"),
+	CRC32(null);
+	
+	// name of the java.security.MessageDigest algorithm (null for checksums)
+	private final String algorithm;
+	
+	private Digest(String algorithm) {
+		this.algorithm = algorithm;
+	}
+	
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	
+}
@@ -0,0 +1,158 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * computes any number of digests of a file in a single pass. the file is either read in chunks
+ * through a direct buffer, which is reused by subsequent calls on the same thread, or digested
+ * straight from a (memory mapped) buffer holding its content.
+ */
+public class DigestEngine {
+
+	private static Logger log = LoggerFactory.getLogger(DigestEngine.class);
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	// direct buffers are expensive to allocate, so each thread holds on to its own...
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private DigestEngine() {
+	}
+	
+	/**
+	 * compute the requested digests of a file
+	 * @param path file to read
+	 * @param digests digests to compute
+	 * @return lower case hex encoded digest values (see {@link #encode(Digest, byte[])})
+	 * @throws IOException
+	 */
+	public static Map<Digest, String> digest(Path path, Set<Digest> digests) throws IOException {
+		try(SeekableByteChannel channel = Files.newByteChannel(path)) {
+			log.trace("computing {} of {}", digests, path);
+			return digest(channel, digests);
+		}
+	}
+	
+	/**
+	 * compute the requested digests of whatever is left to read from the given channel
+	 * @param channel channel to read from (not closed by this method)
+	 * @param digests digests to compute
+	 * @return lower case hex encoded digest values (see {@link #encode(Digest, byte[])})
+	 * @throws IOException
+	 */
+	public static Map<Digest, String> digest(SeekableByteChannel channel, Set<Digest> digests) throws IOException {
+		Engine engine = new Engine(digests);
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+		while(channel.read(buffer) >= 0) {
+			buffer.flip();
+			engine.update(buffer);
+			buffer.clear();
+		}
+		return engine.values();
+	}
+	
+	/**
+	 * compute the requested digests of the remaining content of a buffer, e.g. a memory
+	 * mapped file (see {@link li.excessive.fs.wrap.WrapPath#getContent()}).
+	 * the position of the buffer is left unchanged.
+	 * @param content content to digest
+	 * @param digests digests to compute
+	 * @return lower case hex encoded digest values (see {@link #encode(Digest, byte[])})
+	 */
+	public static Map<Digest, String> digest(ByteBuffer content, Set<Digest> digests) {
+		Engine engine = new Engine(digests);
+		engine.update(content.duplicate());
+		return engine.values();
+	}
+	
+	// the digests computed in a single pass
+	private static class Engine {
+		private final Map<Digest, MessageDigest> mds = new EnumMap<>(Digest.class);
+		private CRC32 crc32 = null;
+		
+		Engine(Set<Digest> digests) {
+			for(Digest d : digests) {
+				if(Digest.CRC32 == d) {
+					crc32 = new CRC32();
+				} else {
+					try {
+						mds.put(d, MessageDigest.getInstance(d.getAlgorithm()));
+					} catch (NoSuchAlgorithmException e) {
+						throw new IllegalStateException("digest algorithm not available: " + d.getAlgorithm(), e);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * consumes the remaining bytes of the buffer
+		 */
+		void update(ByteBuffer buffer) {
+			int position = buffer.position();
+			for(MessageDigest md : mds.values()) {
+				buffer.position(position);
+				md.update(buffer);
+			}
+			if(null != crc32) {
+				buffer.position(position);
+				crc32.update(buffer);
+			}
+			buffer.position(buffer.limit());
+		}
+		
+		Map<Digest, String> values() {
+			Map<Digest, String> values = new EnumMap<>(Digest.class);
+			for(Map.Entry<Digest, MessageDigest> e : mds.entrySet()) {
+				values.put(e.getKey(), encode(e.getKey(), e.getValue().digest()));
+			}
+			if(null != crc32) {
+				long v = crc32.getValue();
+				values.put(Digest.CRC32, encode(Digest.CRC32, new byte[] { (byte)(v >>> 24), (byte)(v >>> 16), (byte)(v >>> 8), (byte)v }));
+			}
+			return values;
+		}
+	}
+	
+	/**
+	 * lower case hex encoding of a digest value. md5 and crc32 values are encoded without
+	 * leading zeros, as they always have been (stored and compared values depend on it),
+	 * all other digests are zero padded to their full length.
+	 */
+	static String encode(Digest digest, byte[] value) {
+		String h = hex(value);
+		if(Digest.MD5 == digest || Digest.CRC32 == digest) {
+			int i = 0;
+			while(i < h.length() - 1 && '0' == h.charAt(i)) {
+				i++;
+			}
+			h = h.substring(i);
+		}
+		return h;
+	}
+	
+	static String hex(byte[] bytes) {
+		char[] c = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++) {
+			c[2 * i] = HEX[(bytes[i] >>> 4) & 0x0f];
+			c[2 * i + 1] = HEX[bytes[i] & 0x0f];
+		}
+		return new String(c);
+	}
+
+}
@@ -0,0 +1,175 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * finds duplicate files below any number of roots (which may belong to different file systems,
+ * e.g. a directory and a zip archive). to keep i/o low, candidates are narrowed down in stages:
+ * <ol>
+ * <li>files are grouped by size (no i/o apart from listing)</li>
+ * <li>files of the same size are grouped by a fingerprint of samples taken from head, middle 
+ * and tail of the file</li>
+ * <li>only files that still collide are read completely to compute their digest</li>
+ * </ol>
+ * digests of meta data paths are computed through their {@link MetaDataView}, so these are
+ * memoized (and persisted if a store is configured). empty files are ignored.
+ */
+public class DuplicateFinder {
+
+	private static Logger log = LoggerFactory.getLogger(DuplicateFinder.class);
+	
+	public static final int SAMPLE_SIZE = 4 * 1024;
+	
+	private final Digest digest;
+	
+	public DuplicateFinder() {
+		this(Digest.SHA256);
+	}
+	
+	/**
+	 * @param digest digest used to compare files in the final stage
+	 */
+	public DuplicateFinder(Digest digest) {
+		this.digest = digest;
+	}
+	
+	/**
+	 * find duplicates below the given roots
+	 * @return groups of identical files, groups are determined lazily as the stream is consumed
+	 * @throws IOException if walking the roots fails
+	 */
+	public Stream<List<Path>> find(Path... roots) throws IOException {
+		// stage 1: group by size...
+		Map<Long, List<Path>> bySize = new HashMap<>();
+		for(Path root : roots) {
+			try(Stream<Path> files = Files.walk(root)) {
+				files.forEach(p -> {
+					try {
+						BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+						if(attrs.isRegularFile() && attrs.size() > 0) {
+							bySize.computeIfAbsent(attrs.size(), k -> new ArrayList<>()).add(p);
+						}
+					} catch (IOException e) {
+						log.warn("failed to read attributes of {}, skipped", p, e);
+					}
+				});
+			}
+		}
+		log.debug("{} distinct file sizes", bySize.size());
+		
+		return bySize.entrySet().stream()
+			.filter(e -> e.getValue().size() > 1)
+			// stage 2: group by sampled fingerprint...
+			.flatMap(e -> group(e.getValue(), p -> fingerprint(p, e.getKey())).stream()
+				// stage 3: group by digest unless the samples covered the whole file already
+				.flatMap(g -> e.getKey() <= 3 * SAMPLE_SIZE ? Stream.of(g) : group(g, this::digest).stream()));
+	}
+	
+	@FunctionalInterface
+	private interface Key {
+		String of(Path p) throws IOException;
+	}
+	
+	/**
+	 * @return groups of more than one path having the same key
+	 */
+	private Collection<List<Path>> group(List<Path> paths, Key key) {
+		Map<String, List<Path>> groups = new HashMap<>();
+		for(Path p : paths) {
+			try {
+				groups.computeIfAbsent(key.of(p), k -> new ArrayList<>()).add(p);
+			} catch (IOException e) {
+				log.warn("failed to read {}, skipped", p, e);
+			}
+		}
+		groups.values().removeIf(g -> g.size() < 2);
+		return groups.values();
+	}
+	
+	/**
+	 * hash of up to three samples of {@value #SAMPLE_SIZE} bytes, taken from head, middle and tail of the file
+	 */
+	protected String fingerprint(Path p, long size) throws IOException {
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer sample = ByteBuffer.allocate((int)Math.min(size, 3 * SAMPLE_SIZE));
+		if(size <= 3 * SAMPLE_SIZE) {
+			read(p, 0, sample);
+		} else {
+			for(long offset : new long[] { 0, size / 2 - SAMPLE_SIZE / 2, size - SAMPLE_SIZE }) {
+				sample.limit(sample.position() + SAMPLE_SIZE);
+				read(p, offset, sample);
+			}
+		}
+		sample.flip();
+		md.update(sample);
+		return DigestEngine.hex(md.digest());
+	}
+	
+	/**
+	 * read from the given offset until the buffer is full. channels of some providers can't be
+	 * positioned (e.g. zipfs), in which case the stream is skipped forward instead.
+	 */
+	private static void read(Path p, long offset, ByteBuffer dst) throws IOException {
+		try(SeekableByteChannel channel = Files.newByteChannel(p)) {
+			channel.position(offset);
+			while(dst.hasRemaining() && channel.read(dst) >= 0);
+			return;
+		} catch (UnsupportedOperationException e) {
+			log.trace("channel of {} can't be positioned, skipping", p);
+		}
+		try(InputStream in = Files.newInputStream(p)) {
+			for(long skip = offset; skip > 0; ) {
+				long n = in.skip(skip);
+				if(n <= 0) {
+					throw new IOException("unexpected end of file " + p);
+				}
+				skip -= n;
+			}
+			byte[] b = new byte[dst.remaining()];
+			int n = 0;
+			for(int r; n < b.length && (r = in.read(b, n, b.length - n)) >= 0; n += r);
+			dst.put(b, 0, n);
+		}
+	}
+	
+	protected String digest(Path p) throws IOException {
+		if(p instanceof MetaDataPath) {
+			try {
+				MetaDataView v = ((MetaDataPath)p).getMetaDataView();
+				if(null != v) {
+					return v.getDigests(digest).get(digest);
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("failed to access meta data of " + p, e);
+			}
+		}
+		Path delegate = p instanceof MetaDataPath ? ((MetaDataPath)p).getDelegate() : p;
+		return DigestEngine.digest(delegate, EnumSet.of(digest)).get(digest);
+	}
+
+}
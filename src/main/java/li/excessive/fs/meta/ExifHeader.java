@@ -0,0 +1,307 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * minimal reader for the exif header of jpeg (and tiff) files. reads only the few tags required
+ * to date a photo straight from the header bytes, which is a lot cheaper than a full parse.
+ * 
+ * http://www.awaresystems.be/imaging/tiff/faq.html#q3
+ * http://www.cipa.jp/std/documents/e/DC-008-2012_E.pdf
+ */
+public class ExifHeader {
+
+	private static Logger log = LoggerFactory.getLogger(ExifHeader.class);
+	
+	/**
+	 * number of bytes read from the beginning of the file. the exif data of a jpeg lives in
+	 * an APP1 segment which can't be larger than that.
+	 */
+	public static final int HEADER_SIZE = 64 * 1024;
+	
+	private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss.SSS");
+	
+	// jpeg markers
+	private static final int SOI = 0xd8;
+	private static final int APP1 = 0xe1;
+	private static final int SOS = 0xda;
+	private static final int EOI = 0xd9;
+	
+	// tiff tags
+	private static final int MAKE = 0x010f;
+	private static final int MODEL = 0x0110;
+	private static final int ORIENTATION = 0x0112;
+	private static final int EXIF_IFD = 0x8769;
+	private static final int DATE_TIME_ORIGINAL = 0x9003;
+	private static final int SUB_SEC_TIME = 0x9290;
+	private static final int SUB_SEC_TIME_ORIGINAL = 0x9291;
+	private static final int JPEG_INTERCHANGE_FORMAT = 0x0201;
+	private static final int JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+	
+	// tiff field types
+	private static final int ASCII = 2;
+	private static final int SHORT = 3;
+	private static final int LONG = 4;
+	
+	private String make = null;
+	private String model = null;
+	private int orientation = 0;
+	private String dateTimeOriginal = null;
+	private String subSecTimeOriginal = null;
+	private String subSecTime = null;
+	// position of the embedded thumbnail within the file (IFD1)
+	private long thumbnailOffset = -1;
+	private long thumbnailLength = 0;
+	
+	private ExifHeader() {
+	}
+	
+	/**
+	 * read the exif header from the beginning of a file
+	 * @return the header or null if the file is neither a jpeg nor a tiff file
+	 * @throws IOException
+	 */
+	public static ExifHeader read(Path path) throws IOException {
+		return read(readHeader(path));
+	}
+	
+	/**
+	 * @return the first {@value #HEADER_SIZE} bytes of a file (or less if the file is smaller)
+	 * @throws IOException
+	 */
+	public static ByteBuffer readHeader(Path path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		try(SeekableByteChannel channel = Files.newByteChannel(path)) {
+			while(header.hasRemaining() && channel.read(header) >= 0);
+		}
+		header.flip();
+		return header;
+	}
+	
+	/**
+	 * read the exif header from the given bytes (the beginning of a file)
+	 * @return the header or null if the bytes don't look like a jpeg or tiff file
+	 */
+	public static ExifHeader read(ByteBuffer header) {
+		ExifHeader exif = null;
+		ByteBuffer b = header.duplicate().order(ByteOrder.BIG_ENDIAN);
+		try {
+			if(b.remaining() >= 4 && (b.get(0) & 0xff) == 0xff && (b.get(1) & 0xff) == SOI) {
+				exif = new ExifHeader();
+				int tiff = findExifSegment(b);
+				if(tiff >= 0) {
+					exif.readTiff(b, tiff);
+				}
+			} else if(isTiff(b, 0)) {
+				exif = new ExifHeader();
+				exif.readTiff(b, 0);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// ...header truncated, keep whatever has been read so far
+			log.trace("exif header exceeds the first {} bytes", b.limit());
+		}
+		return exif;
+	}
+	
+	/**
+	 * walk the jpeg segments up to the start of the image data looking for the exif APP1 segment
+	 * @return position of the tiff header within the exif segment or -1 if not found
+	 */
+	private static int findExifSegment(ByteBuffer b) {
+		int pos = 2;
+		while(pos + 4 <= b.limit()) {
+			if((b.get(pos) & 0xff) != 0xff) {
+				break;
+			}
+			int marker = b.get(pos + 1) & 0xff;
+			if(0xff == marker) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			if(SOS == marker || EOI == marker) {
+				break;
+			}
+			int length = b.getShort(pos + 2) & 0xffff;
+			if(APP1 == marker && pos + 10 <= b.limit()
+					&& 'E' == b.get(pos + 4) && 'x' == b.get(pos + 5) && 'i' == b.get(pos + 6) && 'f' == b.get(pos + 7)
+					&& 0 == b.get(pos + 8) && 0 == b.get(pos + 9)) {
+				return pos + 10;
+			}
+			pos += 2 + length;
+		}
+		return -1;
+	}
+	
+	private static boolean isTiff(ByteBuffer b, int pos) {
+		if(b.limit() < pos + 8) {
+			return false;
+		}
+		int order = b.getShort(pos) & 0xffff;
+		if(0x4949 == order) {
+			return 42 == (b.get(pos + 2) & 0xff) && 0 == b.get(pos + 3);
+		} else if(0x4d4d == order) {
+			return 0 == b.get(pos + 2) && 42 == (b.get(pos + 3) & 0xff);
+		}
+		return false;
+	}
+	
+	/**
+	 * read IFD0, the exif IFD and the thumbnail location from IFD1. all offsets within the tiff 
+	 * structure are relative to its header.
+	 */
+	private void readTiff(ByteBuffer b, int tiff) {
+		if(!isTiff(b, tiff)) {
+			return;
+		}
+		ByteBuffer t = ((ByteBuffer)b.duplicate().position(tiff)).slice();
+		t.order(0x4949 == (t.getShort(0) & 0xffff) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		int ifd0 = t.getInt(4);
+		int exifIfd = -1;
+		int n = t.getShort(ifd0) & 0xffff;
+		for(int i = 0; i < n; i++) {
+			int e = ifd0 + 2 + 12 * i;
+			switch(t.getShort(e) & 0xffff) {
+				case MAKE: make = ascii(t, e); break;
+				case MODEL: model = ascii(t, e); break;
+				case ORIENTATION: orientation = (int)number(t, e); break;
+				case EXIF_IFD: exifIfd = (int)number(t, e); break;
+			}
+		}
+		// ...followed by the offset of the next ifd (IFD1, the thumbnail)
+		int next = ifd0 + 2 + 12 * n;
+		if(exifIfd > 0) {
+			n = t.getShort(exifIfd) & 0xffff;
+			for(int i = 0; i < n; i++) {
+				int e = exifIfd + 2 + 12 * i;
+				switch(t.getShort(e) & 0xffff) {
+					case DATE_TIME_ORIGINAL: dateTimeOriginal = ascii(t, e); break;
+					case SUB_SEC_TIME_ORIGINAL: subSecTimeOriginal = ascii(t, e); break;
+					case SUB_SEC_TIME: subSecTime = ascii(t, e); break;
+				}
+			}
+		}
+		int ifd1 = t.getInt(next);
+		if(ifd1 > 0) {
+			long offset = -1;
+			long length = 0;
+			n = t.getShort(ifd1) & 0xffff;
+			for(int i = 0; i < n; i++) {
+				int e = ifd1 + 2 + 12 * i;
+				switch(t.getShort(e) & 0xffff) {
+					case JPEG_INTERCHANGE_FORMAT: offset = number(t, e); break;
+					case JPEG_INTERCHANGE_FORMAT_LENGTH: length = number(t, e); break;
+				}
+			}
+			if(offset > 0 && length > 0) {
+				thumbnailOffset = tiff + offset;
+				thumbnailLength = length;
+			}
+		}
+	}
+	
+	private static String ascii(ByteBuffer t, int entry) {
+		if(ASCII != (t.getShort(entry + 2) & 0xffff)) {
+			return null;
+		}
+		int count = t.getInt(entry + 4);
+		int offset = count <= 4 ? entry + 8 : t.getInt(entry + 8);
+		if(count < 0 || offset < 0 || (long)offset + count > t.limit()) {
+			// ...corrupt entry or value beyond the header, treated as absent
+			log.trace("invalid ascii value of {} bytes at {}", count, offset);
+			return null;
+		}
+		byte[] s = new byte[count];
+		for(int i = 0; i < count; i++) {
+			s[i] = t.get(offset + i);
+		}
+		// strip trailing nul characters and padding
+		int len = count;
+		while(len > 0 && (0 == s[len - 1] || ' ' == s[len - 1])) {
+			len--;
+		}
+		return len > 0 ? new String(s, 0, len, StandardCharsets.US_ASCII) : null;
+	}
+	
+	private static long number(ByteBuffer t, int entry) {
+		switch(t.getShort(entry + 2) & 0xffff) {
+			case SHORT: return t.getShort(entry + 8) & 0xffff;
+			case LONG: return t.getInt(entry + 8) & 0xffffffffL;
+			default: return 0;
+		}
+	}
+	
+	/**
+	 * combine an exif date/time string with the fraction of seconds (if present)
+	 * @param dt date/time as 'yyyy:MM:dd HH:mm:ss'
+	 * @param subsec fraction of seconds (digits only) or null
+	 * @return the parsed date/time
+	 * @throws java.time.format.DateTimeParseException if the date/time can't be parsed
+	 */
+	public static LocalDateTime parseDateTime(String dt, String subsec) {
+		String ms = null != subsec ? subsec.trim() : "";
+		ms = ms.length() > 3 ? ms.substring(0, 3) : ms;
+		return LocalDateTime.parse(dt + "." + String.format("%1$-3s", ms).replace(' ', '0'), FORMATTER);
+	}
+	
+	/**
+	 * @return 'DateTimeOriginal' including the 'SubSecTimeOriginal' fraction or null if not present
+	 */
+	public LocalDateTime getDateTimeOriginal() {
+		LocalDateTime ldt = null;
+		if(null != dateTimeOriginal) {
+			try {
+				ldt = parseDateTime(dateTimeOriginal, null != subSecTimeOriginal ? subSecTimeOriginal : subSecTime);
+			} catch (Exception e) {
+				log.trace("invalid date/time original '{}'", dateTimeOriginal);
+			}
+		}
+		return ldt;
+	}
+	
+	public String getMake() {
+		return make;
+	}
+	
+	public String getModel() {
+		return model;
+	}
+	
+	/**
+	 * @return the exif orientation (1-8) or 0 if not present
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+	
+	/**
+	 * @return position of the embedded jpeg thumbnail within the file or -1 if there is none
+	 */
+	public long getThumbnailOffset() {
+		return thumbnailOffset;
+	}
+	
+	/**
+	 * @return length of the embedded jpeg thumbnail in bytes (0 if there is none)
+	 */
+	public long getThumbnailLength() {
+		return thumbnailLength;
+	}
+	
+	@Override
+	public String toString() {
+		return "exif [make=" + make + ", model=" + model + ", orientation=" + orientation + ", dateTimeOriginal=" + getDateTimeOriginal() + "]";
+	}
+
+}
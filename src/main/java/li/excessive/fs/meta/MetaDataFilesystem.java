@@ -1,11 +1,20 @@
 package li.excessive.fs.meta;
 
+import java.io.IOException;
+import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,27 +23,275 @@ import li.excessive.fs.wrap.WrapFilesystem;
 
 public class MetaDataFilesystem extends WrapFilesystem {
 
-	@SuppressWarnings("unused")
 	private static Logger log = LoggerFactory.getLogger(MetaDataFilesystem.class);
 	
+	/**
+	 * maximum number of bytes fed to the meta data parser per file (a value &lt;= 0 disables the limit).
+	 * most formats keep their meta data in a header, so there is no point in streaming multi-GB movie 
+	 * files through the parser just to get a creation date. if parsing the truncated stream fails, 
+	 * the whole file is streamed instead. like all options, it only applies to a file system
+	 * created with the env, which fails for a delegate wrapped already (see
+	 * {@link li.excessive.fs.wrap.WrapFilesystemProvider#newFileSystem}).
+	 */
+	public static final String PARSE_LIMIT = "meta.parse.limit";
+	public static final long DEFAULT_PARSE_LIMIT = 512 * 1024;
+	private long parseLimit = DEFAULT_PARSE_LIMIT;
+	
+	/**
+	 * extract the document text in addition to the meta data (see {@link MetaDataView#getText()}).
+	 * disabled by default, in which case the body text is discarded (see {@link MetaDataOnlyHandler}).
+	 */
+	public static final String FULLTEXT = "meta.parse.fulltext";
+	private boolean fulltext = false;
+	
+	/**
+	 * keep meta data snapshots off-heap (see {@link MetaDataSnapshot}), disabled by default
+	 */
+	public static final String SNAPSHOT_OFFHEAP = "meta.snapshot.offheap";
+	private boolean snapshotOffHeap = false;
+	
+	/**
+	 * directory of the persistent meta data store (see {@link MetaDataStore}). if not set,
+	 * meta data is extracted anew in each jvm.
+	 */
+	public static final String STORE_DIR = "meta.store.dir";
+	private MetaDataStore store = null;
+	
+	/**
+	 * keep computed digests and creation dates in user defined extended attributes of the files
+	 * (see {@link MetaDataXattrs}), disabled by default. has no effect if the file store doesn't 
+	 * support these (e.g. zip files).
+	 */
+	public static final String XATTR = "meta.xattr";
+	private boolean xattr = false;
+	// whether file stores support extended attributes
+	private final Map<FileStore, Boolean> xattrStores = new ConcurrentHashMap<>();
+	
+	/**
+	 * number of threads used by {@link #scan(Path)} (defaults to the number of processors)
+	 */
+	public static final String SCAN_PARALLELISM = "meta.scan.parallelism";
+	private int scanParallelism = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * maximum number of results {@link #scan(Path)} may get ahead of the consumer (defaults
+	 * to four times the parallelism)
+	 */
+	public static final String SCAN_BACKLOG = "meta.scan.backlog";
+	private int scanBacklog = 4 * scanParallelism;
+	
+	// backs the virtual directories (see MetaDataIndex)
+	private final MetaDataIndex index = new MetaDataIndex();
+	
+	// sidecars of video files, cached per directory
+	private final SidecarResolver sidecars = new SidecarResolver();
+	
+	// watches directories for modifications to invalidate cached meta data (see watch)
+	private WatchService watcher = null;
+	
 	public MetaDataFilesystem(MetaDataFilesystemProvider provider, FileSystem delegate, Map<String, ?> env) {
-		super(provider, delegate, env);
+		super(provider, delegate, env, MetaDataPath::new);
+		parseLimit = longOption(env, PARSE_LIMIT, DEFAULT_PARSE_LIMIT);
+		fulltext = booleanOption(env, FULLTEXT, false);
+		snapshotOffHeap = booleanOption(env, SNAPSHOT_OFFHEAP, false);
+		xattr = booleanOption(env, XATTR, false);
+		scanParallelism = (int)longOption(env, SCAN_PARALLELISM, scanParallelism);
+		scanBacklog = (int)longOption(env, SCAN_BACKLOG, 4 * scanParallelism);
+		Object dir = env.get(STORE_DIR);
+		if(null != dir) {
+			try {
+				store = new MetaDataStore(dir instanceof Path ? (Path)dir : Paths.get(dir.toString()));
+			} catch (IOException e) {
+				log.warn("failed to open meta data store {}, meta data won't be persisted", dir, e);
+			}
+		}
 	}
 	
 	@Override
-	public Path getPath(String first, String... more) {
-		return new MetaDataPath(this, delegate.getPath(first, more));
+	public MetaDataFilesystemProvider provider() {
+		return (MetaDataFilesystemProvider)provider;
+	}
+	
+	public long getParseLimit() {
+		return parseLimit;
+	}
+	
+	public boolean isFulltext() {
+		return fulltext;
+	}
+	
+	public boolean isSnapshotOffHeap() {
+		return snapshotOffHeap;
+	}
+	
+	/**
+	 * @param delegate a file of the delegate file system
+	 * @return whether meta data is to be kept in extended attributes, i.e. if enabled and supported
+	 * by the file store of the file (which is checked once per store, a tree may span several)
+	 */
+	public boolean isXattr(Path delegate) {
+		if(!xattr) {
+			return false;
+		}
+		try {
+			// ...the store is looked up each time, there is no telling which directory is a mount point
+			Path dir = null != delegate.getParent() ? delegate.getParent() : delegate;
+			return xattrStores.computeIfAbsent(Files.getFileStore(dir), it -> {
+				boolean supported = it.supportsFileAttributeView("user");
+				if(!supported) {
+					log.info("extended attributes not supported by {}, meta data won't be kept there", it);
+				}
+				return supported;
+			});
+		} catch (IOException e) {
+			log.debug("failed to determine file store of {}", delegate, e);
+			return false;
+		}
+	}
+	
+	/**
+	 * @return the persistent meta data store or null if not configured
+	 */
+	public MetaDataStore getStore() {
+		return store;
 	}
 	
+	/**
+	 * @return resolver of the sidecar files (e.g. THM) carrying the capture data of video files
+	 */
+	public SidecarResolver getSidecarResolver() {
+		return sidecars;
+	}
+	
+	/**
+	 * @return the index backing the virtual directories (e.g. /.by-date/2014/04/26)
+	 */
+	public MetaDataIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * add all regular files below root to the index, or update their entries if modified 
+	 * since indexed
+	 * @param root directory of this file system
+	 * @return number of files (re-)indexed
+	 * @see MetaDataIndex
+	 */
+	public int index(Path root) throws IOException {
+		if(root.getFileSystem() != this) {
+			throw new IllegalArgumentException("path " + root + " does not belong to this file system");
+		}
+		return index.index(root, scanParallelism);
+	}
+	
+	/**
+	 * extract the meta data of all regular files below root in parallel
+	 * @param root directory of this file system
+	 * @return stream of results in order of completion, to be closed when done
+	 * @see MetaDataScanner
+	 */
+	public Stream<MetaDataScanner.Result> scan(Path root) {
+		return scan(root, scanParallelism);
+	}
+	
+	/**
+	 * extract the meta data of all regular files below root in parallel
+	 * @param root directory of this file system
+	 * @param parallelism number of threads extracting meta data
+	 * @param fields fields to extract, all meta data if none are given
+	 * @return stream of results in order of completion, to be closed when done
+	 * @see MetaDataScanner
+	 */
+	public Stream<MetaDataScanner.Result> scan(Path root, int parallelism, MetaDataView.Field... fields) {
+		if(root.getFileSystem() != this) {
+			throw new IllegalArgumentException("path " + root + " does not belong to this file system");
+		}
+		return new MetaDataScanner(parallelism, Math.max(scanBacklog, parallelism), fields).scan(root);
+	}
+	
+	/**
+	 * watch the given directory and its sub directories for modifications, invalidating cached 
+	 * meta data and content of modified files and removing deleted files from the index as these happen.
+	 * events are processed by a daemon thread until the file system is closed.
+	 * @param root directory of this file system
+	 * @throws UnsupportedOperationException if the delegate file system doesn't support watching (e.g. zipfs)
+	 */
+	public void watch(Path root) throws IOException {
+		if(root.getFileSystem() != this) {
+			throw new IllegalArgumentException("path " + root + " does not belong to this file system");
+		}
+		WatchService w = null;
+		synchronized(this) {
+			if(null == watcher) {
+				watcher = newWatchService();
+				WatchService ws = watcher;
+				Thread t = new Thread(() -> {
+					try {
+						while(true) {
+							WatchKey key = ws.take();
+							for(WatchEvent<?> e : key.pollEvents()) {
+								// ...caches invalidated as the events are polled, just follow new directories
+								if(StandardWatchEventKinds.ENTRY_CREATE == e.kind() && e.context() instanceof Path) {
+									Path dir = ((Path)key.watchable()).resolve((Path)e.context());
+									if(Files.isDirectory(dir)) {
+										register(ws, dir);
+									}
+								}
+							}
+							key.reset();
+						}
+					} catch (InterruptedException | ClosedWatchServiceException e) {
+						log.debug("stopped watching {}", this);
+					}
+				}, "meta-watch");
+				t.setDaemon(true);
+				t.start();
+			}
+			w = watcher;
+		}
+		register(w, root);
+	}
+	
+	private void register(WatchService ws, Path root) {
+		try(Stream<Path> dirs = Files.walk(root)) {
+			dirs.filter(Files::isDirectory).forEach(dir -> {
+				try {
+					dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				} catch (IOException e) {
+					log.warn("failed to watch {}", dir, e);
+				}
+			});
+		} catch (IOException e) {
+			log.warn("failed to watch {}", root, e);
+		}
+	}
+	
+	/**
+	 * besides the content cache, invalidates the sidecars of the directory and removes deleted 
+	 * files from the index
+	 */
 	@Override
-	public Iterable<Path> getRootDirectories() {
-		Iterable<Path> itr = StreamSupport
-			.stream(delegate.getRootDirectories().spliterator(), false)
-			.map(it -> new MetaDataPath(this, it))
-			.collect(Collectors.toList());
-		return itr;
+	protected void invalidate(Path delegate, boolean deleted) {
+		super.invalidate(delegate, deleted);
+		if(null != delegate.getParent()) {
+			sidecars.invalidate(delegate.getParent());
+		}
+		if(deleted) {
+			index.removeAll(delegate);
+		}
 	}
-
+	
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(null != watcher) {
+				watcher.close();
+				watcher = null;
+			}
+		}
+		super.close();
+	}
+	
 	@Override
 	public Set<String> supportedFileAttributeViews() {
 		Set<String> vs = delegate.supportedFileAttributeViews();
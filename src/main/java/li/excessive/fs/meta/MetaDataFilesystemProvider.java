@@ -1,12 +1,34 @@
 package li.excessive.fs.meta;
 
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,16 +36,19 @@ import org.slf4j.LoggerFactory;
 import li.excessive.fs.wrap.WrapFileStore;
 import li.excessive.fs.wrap.WrapFilesystem;
 import li.excessive.fs.wrap.WrapFilesystemProvider;
-import li.excessive.fs.wrap.WrapPath;
 
 
 public class MetaDataFilesystemProvider extends WrapFilesystemProvider {
 
 	private static Logger log = LoggerFactory.getLogger(MetaDataFilesystemProvider.class);
 	
-	protected WrapPath wrap(Path path) {
-		return new MetaDataPath(this.register(path.getFileSystem()), path);
-	}
+	private static final Set<String> BASIC_ATTRIBUTES = new HashSet<>(Arrays.asList("lastModifiedTime", "lastAccessTime", 
+			"creationTime", "size", "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey"));
+	private static final Set<String> POSIX_ATTRIBUTES = new HashSet<>(Arrays.asList("permissions", "owner", "group"));
+	
+	// shared by all views, loaded on first use
+	private volatile ParserRegistry parserRegistry = null;
+	
 	protected WrapFileStore wrap(FileStore filestore) {
 		return new MetaDataFileStore(filestore);
 	}
@@ -32,11 +57,186 @@ public class MetaDataFilesystemProvider extends WrapFilesystemProvider {
 		return new MetaDataFilesystem(this, delegate, env);
 	}
 
+	/**
+	 * @return detector and parser shared by all meta data views of this provider
+	 */
+	public ParserRegistry getParserRegistry() {
+		ParserRegistry r = parserRegistry;
+		if(null == r) {
+			synchronized(this) {
+				r = parserRegistry;
+				if(null == r) {
+					r = parserRegistry = new ParserRegistry();
+				}
+			}
+		}
+		return r;
+	}
+	
 	@Override
 	public String getScheme() {
 		return "meta";
 	}
 
+	/**
+	 * @return whether the path points into one of the virtual directories (see {@link MetaDataIndex})
+	 */
+	protected boolean isVirtual(Path path) {
+		return path instanceof MetaDataPath && MetaDataIndex.isVirtual(((MetaDataPath)path).getDelegate());
+	}
+	
+	private MetaDataIndex.Node lookup(Path path) throws NoSuchFileException {
+		MetaDataIndex.Node node = ((MetaDataPath)path).getFileSystem().getIndex().lookup(((MetaDataPath)path).getDelegate());
+		if(null == node) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return node;
+	}
+	
+	/**
+	 * virtual directories list their sub directories followed by the indexed files. the files
+	 * are listed by their actual paths, i.e. like symbolic links already resolved: unlike the 
+	 * sub directories they are not <code>dir.resolve(name)</code>, their parent is the directory 
+	 * they actually live in. walking a virtual directory visits the actual files without 
+	 * leaving the virtual tree (they're files, not directories), files of the same name from 
+	 * different directories are told apart. {@link Path#relativize(Path)} against the virtual 
+	 * directory doesn't apply to them, use {@link Path#getFileName()} instead.
+	 */
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) throws IOException {
+		if(!isVirtual(dir)) {
+			return super.newDirectoryStream(dir, filter);
+		}
+		MetaDataIndex.Node node = lookup(dir);
+		MetaDataPath mdp = (MetaDataPath)dir;
+		List<Path> entries = new ArrayList<>();
+		for(String name : node.getDirectories()) {
+			entries.add(mdp.getFileSystem().wrap(mdp.getDelegate().resolve(name)));
+		}
+		entries.addAll(node.getFiles());
+		List<Path> accepted = new ArrayList<>();
+		for(Path p : entries) {
+			if(null == filter || filter.accept(p)) {
+				accepted.add(p);
+			}
+		}
+		return new DirectoryStream<Path>() {
+			@Override
+			public void close() throws IOException {}
+			@Override
+			public Iterator<Path> iterator() {
+				return accepted.iterator();
+			}
+		};
+	}
+	
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		if(!isVirtual(path)) {
+			super.checkAccess(path, modes);
+			return;
+		}
+		lookup(path);
+		for(AccessMode m : modes) {
+			if(AccessMode.WRITE == m) {
+				throw new AccessDeniedException(path.toString(), null, "read-only virtual directory");
+			}
+		}
+	}
+	
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		denyVirtual(path);
+		return super.newByteChannel(path, options, attrs);
+	}
+	
+	@Override
+	public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		denyVirtual(path);
+		return super.newFileChannel(path, options, attrs);
+	}
+	
+	@Override
+	public AsynchronousFileChannel newAsynchronousFileChannel(Path path, Set<? extends OpenOption> options, ExecutorService executor, FileAttribute<?>... attrs) throws IOException {
+		denyVirtual(path);
+		return super.newAsynchronousFileChannel(path, options, executor, attrs);
+	}
+	
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+		denyVirtual(dir);
+		super.createDirectory(dir, attrs);
+	}
+	
+	@Override
+	public void delete(Path path) throws IOException {
+		denyVirtual(path);
+		super.delete(path);
+		if(path instanceof MetaDataPath) {
+			((MetaDataPath)path).getFileSystem().getIndex().remove(this.unwrap(path));
+		}
+	}
+	
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		denyVirtual(target);
+		super.copy(source, target, options);
+	}
+	
+	@Override
+	public void move(Path source, Path target, CopyOption... options) throws IOException {
+		denyVirtual(source);
+		denyVirtual(target);
+		super.move(source, target, options);
+		if(source instanceof MetaDataPath) {
+			((MetaDataPath)source).getFileSystem().getIndex().removeAll(this.unwrap(source));
+		}
+	}
+	
+	private void denyVirtual(Path path) throws AccessDeniedException {
+		if(isVirtual(path)) {
+			throw new AccessDeniedException(path.toString(), null, "read-only virtual directory");
+		}
+	}
+	
+	/**
+	 * attributes of a virtual directory
+	 */
+	private static class VirtualDirectoryAttributes implements BasicFileAttributes {
+		private static final FileTime EPOCH = FileTime.fromMillis(0);
+		@Override
+		public FileTime lastModifiedTime() { return EPOCH; }
+		@Override
+		public FileTime lastAccessTime() { return EPOCH; }
+		@Override
+		public FileTime creationTime() { return EPOCH; }
+		@Override
+		public boolean isRegularFile() { return false; }
+		@Override
+		public boolean isDirectory() { return true; }
+		@Override
+		public boolean isSymbolicLink() { return false; }
+		@Override
+		public boolean isOther() { return false; }
+		@Override
+		public long size() { return 0; }
+		@Override
+		public Object fileKey() { return null; }
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+		if(!isVirtual(path)) {
+			return super.readAttributes(path, type, options);
+		}
+		lookup(path);
+		if(!type.isAssignableFrom(VirtualDirectoryAttributes.class)) {
+			throw new UnsupportedOperationException("virtual directories only support basic attributes");
+		}
+		return (A)new VirtualDirectoryAttributes();
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
@@ -55,5 +255,77 @@ public class MetaDataFilesystemProvider extends WrapFilesystemProvider {
 		}
 		return view;
 	}
+	
+	/**
+	 * besides the views of the delegate, this supports reading 'meta:' attributes (see 
+	 * {@link MetaDataView#readAttributes(String...)}) combined with the basic (or posix, 
+	 * if supported) attributes of the delegate in a single call, e.g. 'meta:size,mimeType,md5'.
+	 * 'meta:*' returns all meta data along with all basic/posix attributes.
+	 */
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		int i = attributes.indexOf(':');
+		if(isVirtual(path)) {
+			BasicFileAttributes attrs = readAttributes(path, BasicFileAttributes.class, options);
+			if(i >= 0 && !"basic".equals(attributes.substring(0, i))) {
+				throw new UnsupportedOperationException("virtual directories only support basic attributes");
+			}
+			Map<String, Object> all = new HashMap<>();
+			all.put("lastModifiedTime", attrs.lastModifiedTime());
+			all.put("lastAccessTime", attrs.lastAccessTime());
+			all.put("creationTime", attrs.creationTime());
+			all.put("size", attrs.size());
+			all.put("isRegularFile", attrs.isRegularFile());
+			all.put("isDirectory", attrs.isDirectory());
+			all.put("isSymbolicLink", attrs.isSymbolicLink());
+			all.put("isOther", attrs.isOther());
+			all.put("fileKey", attrs.fileKey());
+			Map<String, Object> map = new HashMap<>();
+			for(String name : attributes.substring(i + 1).split(",")) {
+				if("*".equals(name)) {
+					map.putAll(all);
+				} else if(all.containsKey(name)) {
+					map.put(name, all.get(name));
+				}
+			}
+			return map;
+		}
+		if(i < 0 || !MetaDataView.NAME.equals(attributes.substring(0, i))) {
+			return super.readAttributes(path, attributes, options);
+		}
+		Path delegate = this.unwrap(path);
+		boolean posix = Files.getFileStore(delegate).supportsFileAttributeView("posix");
+		List<String> names = new ArrayList<>();
+		List<String> delegateNames = new ArrayList<>();
+		for(String name : attributes.substring(i + 1).split(",")) {
+			if(BASIC_ATTRIBUTES.contains(name) || (posix && POSIX_ATTRIBUTES.contains(name))) {
+				delegateNames.add(name);
+			} else {
+				names.add(name);
+			}
+		}
+		
+		Map<String, Object> map = new HashMap<>();
+		// file attributes straight from the delegate...
+		if(names.contains("*")) {
+			map.putAll(Files.readAttributes(delegate, (posix ? "posix" : "basic") + ":*", options));
+		} else if(!delegateNames.isEmpty()) {
+			map.putAll(Files.readAttributes(delegate, (posix ? "posix" : "basic") + ":" + String.join(",", delegateNames), options));
+		}
+		// ...and meta data (for regular files only)
+		if(!names.isEmpty()) {
+			try {
+				MetaDataView v = ((MetaDataPath)path).getMetaDataView();
+				if(null != v) {
+					map.putAll(v.readAttributes(names.toArray(new String[names.size()])));
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("failed to read meta data of " + path, e);
+			}
+		}
+		return map;
+	}
 
 }
@@ -0,0 +1,276 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * in-memory index of the meta data of a file system, backing the virtual read-only directories
+ * <ul>
+ * <li><code>/.by-date/&lt;yyyy&gt;/&lt;MM&gt;/&lt;dd&gt;/</code> - by creation date</li>
+ * <li><code>/.by-camera/&lt;make model&gt;/</code> - by the camera a file was recorded with</li>
+ * <li><code>/.by-type/&lt;type&gt;/&lt;subtype&gt;/</code> - by mime type</li>
+ * </ul>
+ * the innermost directories contain the indexed files themselves (i.e. their actual paths, much
+ * like resolved symbolic links, see {@link MetaDataFilesystemProvider#newDirectoryStream}), so
+ * browsing them is a lookup rather than a scan. the index is maintained incrementally: files are
+ * added by {@link #index(Path, int)} (which only extracts meta data of new or modified files) or
+ * {@link #update(MetaDataPath)} and removed when deleted or moved through the file system.
+ *
+ * the virtual directories are not listed in the root directory, so walking the file system
+ * doesn't visit files twice.
+ */
+public class MetaDataIndex {
+
+	private static Logger log = LoggerFactory.getLogger(MetaDataIndex.class);
+
+	public static final String BY_DATE = ".by-date";
+	public static final String BY_CAMERA = ".by-camera";
+	public static final String BY_TYPE = ".by-type";
+
+	/**
+	 * a virtual directory, containing either further virtual directories or indexed files
+	 */
+	protected static class Node {
+		private final Node parent;
+		private final String name;
+		private final Map<String, Node> children = new ConcurrentSkipListMap<>();
+		// keyed by the delegate path of the file
+		private final Map<Path, MetaDataPath> files = new ConcurrentHashMap<>();
+
+		Node(Node parent, String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		Node child(String name) {
+			return children.computeIfAbsent(name, n -> new Node(this, n));
+		}
+
+		boolean isEmpty() {
+			return children.isEmpty() && files.isEmpty();
+		}
+
+		/**
+		 * @return names of the virtual sub directories
+		 */
+		public Set<String> getDirectories() {
+			return Collections.unmodifiableSet(children.keySet());
+		}
+
+		/**
+		 * @return the indexed files in this directory
+		 */
+		public Collection<MetaDataPath> getFiles() {
+			return Collections.unmodifiableCollection(files.values());
+		}
+	}
+
+	// an indexed file and the directories it is listed in
+	private static class Entry {
+		private final FileTime lastModifiedTime;
+		private final List<Node> nodes;
+
+		Entry(FileTime lastModifiedTime, List<Node> nodes) {
+			this.lastModifiedTime = lastModifiedTime;
+			this.nodes = nodes;
+		}
+	}
+
+	private final Node root = new Node(null, "");
+
+	// keyed by the delegate path of the file
+	private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+	public MetaDataIndex() {
+		for(String name : Arrays.asList(BY_DATE, BY_CAMERA, BY_TYPE)) {
+			root.child(name);
+		}
+	}
+
+	/**
+	 * @return whether the path points to (or into) one of the virtual directories
+	 */
+	public static boolean isVirtual(Path path) {
+		if(path.isAbsolute() && path.getNameCount() > 0) {
+			String first = path.getName(0).toString();
+			return BY_DATE.equals(first) || BY_CAMERA.equals(first) || BY_TYPE.equals(first);
+		}
+		return false;
+	}
+
+	/**
+	 * look up a virtual directory
+	 * @param path virtual path
+	 * @return the directory or null if there is none (e.g. no files of that date have been indexed)
+	 */
+	public Node lookup(Path path) {
+		if(!isVirtual(path)) {
+			return null;
+		}
+		path = path.normalize();
+		Node n = root;
+		for(int i = 0; null != n && i < path.getNameCount(); i++) {
+			n = n.children.get(path.getName(i).toString());
+		}
+		return n;
+	}
+
+	/**
+	 * @return number of files in the index
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * (re-)index all regular files below root. meta data is only extracted for files that are not
+	 * yet indexed or modified since, files that no longer exist are removed from the index.
+	 * @param root directory of the file system
+	 * @param parallelism number of threads extracting meta data
+	 * @return number of files (re-)indexed
+	 */
+	public int index(Path root, int parallelism) throws IOException {
+		Set<MetaDataPath> stale = ConcurrentHashMap.newKeySet();
+		Set<Path> seen = ConcurrentHashMap.newKeySet();
+		MetaDataFilesystem fs = (MetaDataFilesystem)root.getFileSystem();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			// ...sub trees are walked concurrently
+			pool.submit(() -> fs.walk(root, Integer.MAX_VALUE).parallel().forEach(p -> {
+				MetaDataPath mdp = (MetaDataPath)p;
+				try {
+					BasicFileAttributes attrs = mdp.readAttributes();
+					if(attrs.isRegularFile()) {
+						seen.add(mdp.getDelegate());
+						Entry e = entries.get(mdp.getDelegate());
+						if(null == e || !attrs.lastModifiedTime().equals(e.lastModifiedTime)) {
+							stale.add(mdp);
+						}
+					}
+				} catch (IOException e) {
+					log.warn("failed to read attributes of {}, not indexed", p, e);
+				}
+			})).get();
+			Path delegateRoot = ((MetaDataPath)root).getDelegate();
+			for(Path p : new ArrayList<>(entries.keySet())) {
+				if(p.startsWith(delegateRoot) && !seen.contains(p)) {
+					remove(p);
+				}
+			}
+			log.debug("indexing {} of {} files below {}", stale.size(), seen.size(), root);
+			pool.submit(() -> stale.parallelStream().forEach(this::update)).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("indexing " + root + " interrupted", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException)e.getCause()).getCause();
+			}
+			throw new IOException("failed to index " + root, e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return stale.size();
+	}
+
+	/**
+	 * add a file to the index or update its entry
+	 */
+	public void update(MetaDataPath path) {
+		// virtual directories the file is listed in
+		List<String[]> dirs = new ArrayList<>();
+		FileTime lastModifiedTime = null;
+		try {
+			MetaDataView v = path.getMetaDataView();
+			if(null == v) {
+				remove(path.getDelegate());
+				return;
+			}
+			lastModifiedTime = v.getLastModifiedTime();
+			LocalDateTime created = v.getDateTimeCreated();
+			if(null != created) {
+				dirs.add(new String[] { BY_DATE, String.format("%04d", created.getYear()), 
+					String.format("%02d", created.getMonthValue()), String.format("%02d", created.getDayOfMonth()) });
+			}
+			String camera = v.getCamera();
+			if(null != camera) {
+				dirs.add(new String[] { BY_CAMERA, name(camera) });
+			}
+			String mimeType = v.getMimeType();
+			if(null != mimeType) {
+				String[] type = mimeType.replaceAll(";.*$", "").trim().split("/", 2);
+				dirs.add(type.length > 1 ? new String[] { BY_TYPE, name(type[0]), name(type[1]) } : new String[] { BY_TYPE, name(type[0]) });
+			}
+		} catch (Exception e) {
+			log.warn("failed to index {}", path, e);
+		}
+		// ...resolved while holding the lock, so they can't be pruned in the meantime
+		synchronized(this) {
+			remove(path.getDelegate());
+			List<Node> nodes = new ArrayList<>();
+			for(String[] dir : dirs) {
+				Node n = root;
+				for(String name : dir) {
+					n = n.child(name);
+				}
+				n.files.put(path.getDelegate(), path);
+				nodes.add(n);
+			}
+			entries.put(path.getDelegate(), new Entry(lastModifiedTime, nodes));
+		}
+	}
+
+	/**
+	 * remove a file from the index
+	 * @param delegate delegate path of the file
+	 */
+	public synchronized void remove(Path delegate) {
+		Entry e = entries.remove(delegate);
+		if(null != e) {
+			for(Node n : e.nodes) {
+				n.files.remove(delegate);
+				// prune directories left empty (but keep the top level ones)
+				while(null != n.parent && null != n.parent.parent && n.isEmpty()) {
+					n.parent.children.remove(n.name);
+					n = n.parent;
+				}
+			}
+		}
+	}
+
+	/**
+	 * remove all files below the given directory from the index
+	 * @param delegate delegate path of the directory
+	 */
+	public void removeAll(Path delegate) {
+		for(Path p : entries.keySet().stream().filter(p -> p.startsWith(delegate)).collect(Collectors.toList())) {
+			remove(p);
+		}
+	}
+
+	// file names must not contain separators
+	private static String name(String s) {
+		return s.replace('/', '_').replace('\\', '_');
+	}
+
+}
@@ -0,0 +1,89 @@
+package li.excessive.fs.meta;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * content handler for meta data only parsing. all content is discarded. some formats may
+ * carry meta data after the document body (e.g. trailing xmp packets or rtf info groups),
+ * so parsing goes on to the end by default. for types whose parsers are known to populate
+ * the meta data before they output the body (see {@link #STOP_AT_BODY_TYPES}) parsing is
+ * stopped as soon as the parser starts emitting body text. the handler signals the stop by
+ * throwing a {@link StopParsingException}, which has to be caught by the caller
+ * (see {@link #isStop(Throwable)}).
+ */
+public class MetaDataOnlyHandler extends DefaultHandler {
+
+	private static final String BODY = "body";
+	
+	/**
+	 * thrown to abort parsing once all meta data has been seen
+	 */
+	public static class StopParsingException extends SAXException {
+		private static final long serialVersionUID = 1L;
+		public StopParsingException() {
+			super("meta data complete");
+		}
+	}
+	
+	/**
+	 * mime types (without parameters) parsing may be stopped for at the start of the body text
+	 */
+	public static final Set<String> STOP_AT_BODY_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"text/plain", "text/html")));
+	
+	private final boolean stopAtBody;
+	
+	private boolean inBody = false;
+	
+	/**
+	 * @param mimeType detected type of the document or null if unknown
+	 */
+	public MetaDataOnlyHandler(String mimeType) {
+		this.stopAtBody = null != mimeType && STOP_AT_BODY_TYPES.contains(mimeType.replaceAll(";.*$", "").trim());
+	}
+	
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if(BODY.equals(localName)) {
+			inBody = true;
+		}
+	}
+	
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if(BODY.equals(localName)) {
+			inBody = false;
+		}
+	}
+	
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if(inBody && stopAtBody) {
+			for(int i = start; i < start + length; i++) {
+				if(!Character.isWhitespace(ch[i])) {
+					throw new StopParsingException();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the given exception (or any of its causes) was thrown to stop parsing
+	 */
+	public static boolean isStop(Throwable t) {
+		for(; null != t; t = t.getCause()) {
+			if(t instanceof StopParsingException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -1,8 +1,15 @@
 package li.excessive.fs.meta;
 
+import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +24,8 @@ public class MetaDataPath extends WrapPath {
 	// once accessed, keep soft reference to metadata object...
 	// memory should be gc'd when required
 	protected SoftReference<MetaDataView> metadataCache = null;
+	// modification stamp of the file at the time the meta data was cached (see WrapFilesystem.getStamp)
+	protected long metadataStamp = 0;
 
 	private static Logger log = LoggerFactory.getLogger(MetaDataPath.class);
 
@@ -29,12 +38,19 @@ public class MetaDataPath extends WrapPath {
 		super(fs, delegate);
 	}
 	
+	@Override
+	public MetaDataFilesystem getFileSystem() {
+		return (MetaDataFilesystem)fs;
+	}
+	
 	protected MetaDataView getMetaDataView() throws Exception {
 		MetaDataView b = null;
 		if(Files.isRegularFile(this)) {
-			if(null == metadataCache || null == metadataCache.get()) {
+			long stamp = getFileSystem().getStamp(delegate);
+			if(null == metadataCache || null == metadataCache.get() || stamp != metadataStamp) {
 				log.trace("caching meta data {}", this);
-				metadataCache = new SoftReference<MetaDataView>(new MetaDataView(this));
+				metadataCache = new SoftReference<MetaDataView>(this.loadMetaDataView());
+				metadataStamp = stamp;
 			} else {
 				log.trace("metadata loaded from cache {}", this);
 			}
@@ -42,7 +58,81 @@ public class MetaDataPath extends WrapPath {
 		}
 		return b;
 	}
+	
+	/**
+	 * look up the meta data in the persistent store (if configured) and parse the file only
+	 * if it's not found there or out of date. values kept in extended attributes (if enabled) 
+	 * are restored as well.
+	 */
+	private MetaDataView loadMetaDataView() throws Exception {
+		MetaDataView v = null;
+		MetaDataStore store = getFileSystem().getStore();
+		boolean xattr = getFileSystem().isXattr(delegate);
+		if(null == store && !xattr) {
+			v = new MetaDataView(this);
+		} else {
+			BasicFileAttributes attrs = readAttributes();
+			MetaDataStore.Entry entry = null != store ? store.load(delegate, attrs, getFileSystem().isSnapshotOffHeap()) : null;
+			if(null != entry) {
+				v = new MetaDataView(this, entry);
+			} else {
+				// ...written to the store once parsed
+				v = new MetaDataView(this);
+			}
+			v.attrs = attrs;
+			if(xattr) {
+				v.restore(MetaDataXattrs.read(delegate, attrs));
+			}
+		}
+		return v;
+	}
 		
+	/**
+	 * the embedded jpeg thumbnail (see {@link MetaDataView#getThumbnail()}) as a read-only buffer.
+	 * files of the default file system are memory mapped, so the thumbnail is neither copied nor 
+	 * decoded. other file systems (e.g. zip files) can't be mapped, so the thumbnail is read 
+	 * into a heap buffer.
+	 * @return the thumbnail or null if there is none
+	 */
+	public ByteBuffer getThumbnail() throws IOException {
+		long[] t = thumbnail();
+		if(t[0] < 0) {
+			return null;
+		}
+		if(FileSystems.getDefault() == delegate.getFileSystem()) {
+			try(FileChannel channel = FileChannel.open(delegate, StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, t[0], t[1]).asReadOnlyBuffer();
+			}
+		}
+		ByteBuffer b = ByteBuffer.allocate((int)t[1]);
+		try(SeekableByteChannel channel = new SliceChannel(Files.newByteChannel(delegate), t[0], t[1])) {
+			while(b.hasRemaining() && channel.read(b) >= 0);
+		}
+		b.flip();
+		return b.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * open a read-only channel over the embedded jpeg thumbnail, reading straight from the file
+	 * @return the channel or null if there is no thumbnail
+	 */
+	public SeekableByteChannel newThumbnailChannel() throws IOException {
+		long[] t = thumbnail();
+		return t[0] < 0 ? null : new SliceChannel(Files.newByteChannel(delegate), t[0], t[1]);
+	}
+	
+	private long[] thumbnail() throws IOException {
+		MetaDataView v = null;
+		try {
+			v = getMetaDataView();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("failed to access meta data of " + this, e);
+		}
+		return null != v ? v.getThumbnail() : new long[] { -1, 0 };
+	}
+	
 	@Override
 	public String toString() {
 		return this.toUri().toString();
@@ -0,0 +1,182 @@
+package li.excessive.fs.meta;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * bulk meta data extraction. walks a directory tree and extracts the meta data of all regular
+ * files on a fork join pool. the walker never gets more than a given number of results ahead 
+ * of the consumer, so memory stays bounded no matter how large the tree is.
+ * results are delivered in the order they are completed, not in walk order.
+ * 
+ * the stream returned by {@link #scan(Path)} must be closed to stop the walker and the pool
+ * if it's not consumed completely.
+ */
+public class MetaDataScanner {
+
+	private static Logger log = LoggerFactory.getLogger(MetaDataScanner.class);
+	
+	/**
+	 * meta data (or the error that occurred while extracting it) of a single file
+	 */
+	public static class Result {
+		private final Path path;
+		private final MetaDataView view;
+		private final Exception error;
+		
+		protected Result(Path path, MetaDataView view, Exception error) {
+			this.path = path;
+			this.view = view;
+			this.error = error;
+		}
+		public Path getPath() {
+			return path;
+		}
+		public MetaDataView getView() {
+			return view;
+		}
+		public Exception getError() {
+			return error;
+		}
+		public boolean isError() {
+			return null != error;
+		}
+		@Override
+		public String toString() {
+			return path + (isError() ? " : " + error : "");
+		}
+	}
+	
+	// marks the end of the result queue
+	private static final Result END = new Result(null, null, null);
+	
+	private final int parallelism;
+	
+	private final int backlog;
+	
+	private final MetaDataView.Field[] fields;
+	
+	/**
+	 * @param parallelism number of threads extracting meta data
+	 * @param backlog maximum number of results the walker may get ahead of the consumer
+	 * @param fields fields to extract (see {@link MetaDataView#load(MetaDataView.Field...)}), 
+	 * all meta data if none are given
+	 */
+	public MetaDataScanner(int parallelism, int backlog, MetaDataView.Field... fields) {
+		if(parallelism < 1 || backlog < 1) {
+			throw new IllegalArgumentException("parallelism and backlog have to be positive");
+		}
+		this.parallelism = parallelism;
+		this.backlog = backlog;
+		this.fields = fields.length > 0 ? fields : new MetaDataView.Field[] { MetaDataView.Field.METADATA };
+	}
+	
+	/**
+	 * extract meta data of all regular files below the given root
+	 * @param root a directory (or file) of a meta data file system
+	 * @return stream of results, to be closed when done
+	 */
+	public Stream<Result> scan(Path root) {
+		if(!(root instanceof MetaDataPath)) {
+			throw new IllegalArgumentException("invalid path type " + root.getClass());
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+		Semaphore permits = new Semaphore(backlog);
+		
+		Thread walker = new Thread(() -> {
+			try(Stream<Path> files = Files.walk(root)) {
+				Iterator<Path> it = files.iterator();
+				while(it.hasNext() && !Thread.currentThread().isInterrupted()) {
+					Path p = it.next();
+					if(p instanceof MetaDataPath && Files.isRegularFile(p)) {
+						permits.acquire();
+						pool.execute(() -> results.add(extract((MetaDataPath)p)));
+					}
+				}
+			} catch (InterruptedException e) {
+				log.debug("scan of {} cancelled", root);
+			} catch (Exception e) {
+				log.warn("failed to walk {}", root, e);
+				results.add(new Result(root, null, e));
+			} finally {
+				// wait for the pending extractions, then signal the end of the results
+				pool.shutdown();
+				try {
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					pool.shutdownNow();
+				}
+				results.add(END);
+			}
+		}, "meta-scan " + root);
+		walker.setDaemon(true);
+		walker.start();
+		
+		Iterator<Result> it = new Iterator<Result>() {
+			Result next = null;
+			@Override
+			public boolean hasNext() {
+				if(null == next) {
+					try {
+						next = results.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						next = END;
+					}
+					if(END != next) {
+						permits.release();
+					}
+				}
+				return END != next;
+			}
+			@Override
+			public Result next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Result r = next;
+				next = null;
+				return r;
+			}
+		};
+		
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.NONNULL), false)
+				.onClose(() -> {
+					walker.interrupt();
+					pool.shutdownNow();
+				});
+	}
+	
+	protected Result extract(MetaDataPath p) {
+		Result r = null;
+		try {
+			MetaDataView v = p.getMetaDataView();
+			if(null != v) {
+				// views are populated lazily, make sure this is done by the pool
+				v.load(fields);
+			}
+			r = new Result(p, v, null);
+		} catch (Exception e) {
+			log.debug("failed to extract meta data of {}", p, e);
+			r = new Result(p, null, e);
+		}
+		return r;
+	}
+
+}
@@ -0,0 +1,301 @@
+package li.excessive.fs.meta;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * immutable, compact representation of the meta data of a file. tika's {@link Metadata} is a
+ * hash map of string arrays, which is way too heavy to keep around for millions of files.
+ * a snapshot instead packs everything into a single byte buffer (optionally off-heap):
+ * <pre>
+ * long   date/time created (epoch millis, utc) or {@link Long#MIN_VALUE}
+ * long   size
+ * int    number of keys n
+ * int[n] offset of each entry, entries sorted by key
+ * entry: int key id, int number of values, (int length, utf-8 bytes) per value
+ * </pre>
+ * keys are dictionary encoded, i.e. each distinct key is stored only once per jvm.
+ */
+public class MetaDataSnapshot {
+	
+	private static final int CREATED = 0;
+	private static final int SIZE = 8;
+	private static final int COUNT = 16;
+	private static final int OFFSETS = 20;
+	
+	private static final long NONE = Long.MIN_VALUE;
+	
+	// chunks used to allocate off-heap buffers. small buffers are sliced from a shared chunk, which 
+	// is released once all of its slices have been garbage collected.
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	private static ByteBuffer chunk = null;
+	
+	private final ByteBuffer buffer;
+	
+	/**
+	 * dictionary of meta data keys, shared by all snapshots
+	 */
+	static class Keys {
+		private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+		private static volatile String[] keys = new String[256];
+		
+		static int id(String key) {
+			Integer id = ids.get(key);
+			if(null == id) {
+				synchronized(ids) {
+					id = ids.get(key);
+					if(null == id) {
+						id = ids.size();
+						String[] k = keys;
+						if(id >= k.length) {
+							k = Arrays.copyOf(k, 2 * k.length);
+						}
+						k[id] = key.intern();
+						keys = k;
+						ids.put(k[id], id);
+					}
+				}
+			}
+			return id;
+		}
+		
+		static String key(int id) {
+			return keys[id];
+		}
+	}
+	
+	private MetaDataSnapshot(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+	
+	/**
+	 * create a snapshot of tika meta data
+	 * @param metadata meta data to copy
+	 * @param created date/time created (or null)
+	 * @param size file size
+	 * @param offHeap whether to keep the snapshot in direct memory
+	 */
+	public static MetaDataSnapshot of(Metadata metadata, LocalDateTime created, long size, boolean offHeap) {
+		TreeMap<String, String[]> entries = new TreeMap<>();
+		for(String name : metadata.names()) {
+			entries.put(name, metadata.getValues(name));
+		}
+		return of(entries, created, size, offHeap);
+	}
+	
+	private static MetaDataSnapshot of(TreeMap<String, String[]> entries, LocalDateTime created, long size, boolean offHeap) {
+		// encode values first to determine the buffer size...
+		byte[][][] encoded = new byte[entries.size()][][];
+		int length = OFFSETS + 4 * entries.size();
+		int i = 0;
+		for(String[] values : entries.values()) {
+			encoded[i] = new byte[values.length][];
+			length += 8;
+			for(int j = 0; j < values.length; j++) {
+				encoded[i][j] = values[j].getBytes(StandardCharsets.UTF_8);
+				length += 4 + encoded[i][j].length;
+			}
+			i++;
+		}
+		
+		ByteBuffer b = allocate(length, offHeap);
+		b.putLong(CREATED, null != created ? created.toInstant(ZoneOffset.UTC).toEpochMilli() : NONE);
+		b.putLong(SIZE, size);
+		b.putInt(COUNT, entries.size());
+		b.position(OFFSETS + 4 * entries.size());
+		i = 0;
+		for(String name : entries.keySet()) {
+			b.putInt(OFFSETS + 4 * i, b.position());
+			b.putInt(Keys.id(name));
+			b.putInt(encoded[i].length);
+			for(byte[] v : encoded[i]) {
+				b.putInt(v.length);
+				b.put(v);
+			}
+			i++;
+		}
+		b.clear();
+		return new MetaDataSnapshot(b.asReadOnlyBuffer());
+	}
+	
+	private static ByteBuffer allocate(int length, boolean offHeap) {
+		if(!offHeap) {
+			return ByteBuffer.allocate(length);
+		}
+		if(length > CHUNK_SIZE / 8) {
+			return ByteBuffer.allocateDirect(length);
+		}
+		synchronized(MetaDataSnapshot.class) {
+			if(null == chunk || chunk.remaining() < length) {
+				chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			}
+			ByteBuffer b = chunk.slice();
+			b.limit(length);
+			chunk.position(chunk.position() + length);
+			return b.slice();
+		}
+	}
+	
+	/**
+	 * read a snapshot written by {@link #writeTo(DataOutputStream)}
+	 */
+	public static MetaDataSnapshot readFrom(DataInputStream in, boolean offHeap) throws IOException {
+		long created = in.readLong();
+		long size = in.readLong();
+		TreeMap<String, String[]> entries = new TreeMap<>();
+		for(int i = in.readInt(); i > 0; i--) {
+			String name = in.readUTF();
+			String[] values = new String[in.readInt()];
+			for(int j = 0; j < values.length; j++) {
+				byte[] v = new byte[in.readInt()];
+				in.readFully(v);
+				values[j] = new String(v, StandardCharsets.UTF_8);
+			}
+			entries.put(name, values);
+		}
+		return of(entries, NONE != created ? LocalDateTime.ofInstant(Instant.ofEpochMilli(created), ZoneOffset.UTC) : null, size, offHeap);
+	}
+	
+	/**
+	 * write the snapshot in a portable format, i.e. with keys spelled out
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeLong(buffer.getLong(CREATED));
+		out.writeLong(buffer.getLong(SIZE));
+		int n = count();
+		out.writeInt(n);
+		for(int i = 0; i < n; i++) {
+			int e = buffer.getInt(OFFSETS + 4 * i);
+			out.writeUTF(Keys.key(buffer.getInt(e)));
+			int values = buffer.getInt(e + 4);
+			out.writeInt(values);
+			e += 8;
+			for(int j = 0; j < values; j++) {
+				int length = buffer.getInt(e);
+				out.writeInt(length);
+				for(int k = 0; k < length; k++) {
+					out.write(buffer.get(e + 4 + k));
+				}
+				e += 4 + length;
+			}
+		}
+	}
+	
+	private int count() {
+		return buffer.getInt(COUNT);
+	}
+	
+	private String name(int i) {
+		return Keys.key(buffer.getInt(buffer.getInt(OFFSETS + 4 * i)));
+	}
+	
+	/**
+	 * @return offset of the entry for the given name or -1 if not found
+	 */
+	private int find(String name) {
+		int lo = 0;
+		int hi = count() - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = name(mid).compareTo(name);
+			if(c < 0) {
+				lo = mid + 1;
+			} else if(c > 0) {
+				hi = mid - 1;
+			} else {
+				return buffer.getInt(OFFSETS + 4 * mid);
+			}
+		}
+		return -1;
+	}
+	
+	private String value(int offset) {
+		int length = buffer.getInt(offset);
+		byte[] b = new byte[length];
+		ByteBuffer d = buffer.duplicate();
+		d.position(offset + 4);
+		d.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return all keys in alphabetical order (a view, no copy is made)
+	 */
+	public List<String> names() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				if(index < 0 || index >= size()) {
+					throw new IndexOutOfBoundsException("index " + index);
+				}
+				return name(index);
+			}
+			@Override
+			public int size() {
+				return count();
+			}
+		};
+	}
+	
+	/**
+	 * @return (first) value of the given key or null if not present
+	 */
+	public String get(String name) {
+		int e = find(name);
+		return e >= 0 && buffer.getInt(e + 4) > 0 ? value(e + 8) : null;
+	}
+	
+	/**
+	 * @return values of the given key, an empty array if not present
+	 */
+	public String[] getValues(String name) {
+		int e = find(name);
+		String[] values = new String[e >= 0 ? buffer.getInt(e + 4) : 0];
+		int offset = e + 8;
+		for(int i = 0; i < values.length; i++) {
+			values[i] = value(offset);
+			offset += 4 + buffer.getInt(offset);
+		}
+		return values;
+	}
+	
+	public boolean isMultiValued(String name) {
+		int e = find(name);
+		return e >= 0 && buffer.getInt(e + 4) > 1;
+	}
+	
+	public LocalDateTime getDateTimeCreated() {
+		long created = buffer.getLong(CREATED);
+		return NONE != created ? LocalDateTime.ofInstant(Instant.ofEpochMilli(created), ZoneOffset.UTC) : null;
+	}
+	
+	public long getSize() {
+		return buffer.getLong(SIZE);
+	}
+	
+	/**
+	 * @return number of bytes occupied by the snapshot
+	 */
+	public int getEncodedSize() {
+		return buffer.capacity();
+	}
+	
+	public boolean isOffHeap() {
+		return buffer.isDirect();
+	}
+
+}
@@ -0,0 +1,193 @@
+package li.excessive.fs.meta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * persistent local store for extracted meta data and digests, so they survive the jvm.
+ * entries are keyed by the delegate path and validated against size, last modified time and
+ * file key of the file. if any of these changed, the entry is considered stale.
+ * each entry is kept in a file of its own, named after the sha1 hash of the delegate uri.
+ */
+public class MetaDataStore {
+
+	private static Logger log = LoggerFactory.getLogger(MetaDataStore.class);
+	
+	private static final int MAGIC = 0x6d647333; // "mds3"
+	
+	protected final Path dir;
+	
+	/**
+	 * a stored entry
+	 */
+	public static class Entry {
+		// null if the file hasn't been parsed (yet)
+		public final MetaDataSnapshot snapshot;
+		public final Map<Digest, String> digests;
+		// offset and length of the embedded thumbnail, null if not located (yet)
+		public final long[] thumbnail;
+		
+		public Entry(MetaDataSnapshot snapshot, Map<Digest, String> digests) {
+			this(snapshot, digests, null);
+		}
+		
+		public Entry(MetaDataSnapshot snapshot, Map<Digest, String> digests, long[] thumbnail) {
+			this.snapshot = snapshot;
+			this.digests = digests;
+			this.thumbnail = thumbnail;
+		}
+	}
+	
+	public MetaDataStore(Path dir) throws IOException {
+		this.dir = dir;
+		Files.createDirectories(dir);
+	}
+	
+	public Path getDirectory() {
+		return dir;
+	}
+	
+	/**
+	 * look up the stored meta data of a file
+	 * @param delegate the (unwrapped) file
+	 * @param attrs current attributes of the file, used to detect stale entries
+	 * @return the stored entry or null if not found or stale
+	 */
+	public Entry load(Path delegate, BasicFileAttributes attrs) {
+		return load(delegate, attrs, false);
+	}
+	
+	/**
+	 * look up the stored meta data of a file
+	 * @param delegate the (unwrapped) file
+	 * @param attrs current attributes of the file, used to detect stale entries
+	 * @param offHeap whether to keep the meta data snapshot in direct memory
+	 * @return the stored entry or null if not found or stale
+	 */
+	public Entry load(Path delegate, BasicFileAttributes attrs, boolean offHeap) {
+		Entry entry = null;
+		String key = key(delegate);
+		Path f = file(key);
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(f)))) {
+			if(MAGIC == in.readInt()
+					&& key.equals(readString(in))
+					&& attrs.size() == in.readLong()
+					&& attrs.lastModifiedTime().toMillis() == in.readLong()
+					&& Objects.equals(fileKey(attrs), readString(in))) {
+				// meta data might not have been parsed when the entry was written
+				MetaDataSnapshot snapshot = in.readBoolean() ? MetaDataSnapshot.readFrom(in, offHeap) : null;
+				Map<Digest, String> digests = new EnumMap<>(Digest.class);
+				for(int i = in.readInt(); i > 0; i--) {
+					digests.put(Digest.valueOf(readString(in)), readString(in));
+				}
+				long[] thumbnail = in.readBoolean() ? new long[] { in.readLong(), in.readLong() } : null;
+				entry = new Entry(snapshot, digests, thumbnail);
+				log.trace("meta data loaded from store {}", delegate);
+			} else {
+				log.trace("stale meta data in store {}", delegate);
+			}
+		} catch (NoSuchFileException e) {
+			log.trace("meta data not in store {}", delegate);
+		} catch (Exception e) {
+			log.warn("failed to load meta data of {} from store", delegate, e);
+		}
+		return entry;
+	}
+	
+	/**
+	 * store the meta data of a file, replacing any previous entry
+	 * @param delegate the (unwrapped) file
+	 * @param attrs attributes of the file at the time the meta data was extracted
+	 * @param entry the meta data to store
+	 */
+	public void save(Path delegate, BasicFileAttributes attrs, Entry entry) {
+		String key = key(delegate);
+		Path f = file(key);
+		try {
+			Files.createDirectories(f.getParent());
+			Path tmp = Files.createTempFile(f.getParent(), f.getFileName().toString(), ".tmp");
+			try {
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+					out.writeInt(MAGIC);
+					writeString(out, key);
+					out.writeLong(attrs.size());
+					out.writeLong(attrs.lastModifiedTime().toMillis());
+					writeString(out, fileKey(attrs));
+					out.writeBoolean(null != entry.snapshot);
+					if(null != entry.snapshot) {
+						entry.snapshot.writeTo(out);
+					}
+					out.writeInt(entry.digests.size());
+					for(Map.Entry<Digest, String> d : entry.digests.entrySet()) {
+						writeString(out, d.getKey().name());
+						writeString(out, d.getValue());
+					}
+					out.writeBoolean(null != entry.thumbnail);
+					if(null != entry.thumbnail) {
+						out.writeLong(entry.thumbnail[0]);
+						out.writeLong(entry.thumbnail[1]);
+					}
+				}
+				try {
+					Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING);
+				}
+				log.trace("meta data saved to store {}", delegate);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (Exception e) {
+			log.warn("failed to save meta data of {} to store", delegate, e);
+		}
+	}
+	
+	protected String key(Path delegate) {
+		return delegate.toAbsolutePath().toUri().toString();
+	}
+	
+	protected Path file(String key) {
+		try {
+			String h = DigestEngine.hex(MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8)));
+			// spread entries over 256 sub directories...
+			return dir.resolve(h.substring(0, 2)).resolve(h.substring(2));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String fileKey(BasicFileAttributes attrs) {
+		return null != attrs.fileKey() ? attrs.fileKey().toString() : "";
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = (null != s ? s : "").getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+}
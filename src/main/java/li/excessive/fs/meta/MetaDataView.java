@@ -1,82 +1,519 @@
 package li.excessive.fs.meta;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.UserDefinedFileAttributeView;
-import java.security.MessageDigest;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Formatter;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.CRC32;
+import java.util.Map;
+import java.util.Set;
 
-import org.apache.tika.Tika;
+import org.apache.tika.detect.Detector;
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TIFF;
 import org.apache.tika.metadata.TikaCoreProperties;
-import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.ContentHandler;
 
 /**
+ * meta data of a file. the view is populated lazily in tiers, each one only when a field that
+ * requires it is read:
+ * <ol>
+ * <li>{@link Tier#BASIC} - basic file attributes (size, last modified time)</li>
+ * <li>{@link Tier#DETECT} - mime type detected from the magic bytes and exif header, both read 
+ * from the first {@value ExifHeader#HEADER_SIZE} bytes of the file</li>
+ * <li>{@link Tier#PARSE} - full tika meta data</li>
+ * </ol>
+ * callers knowing which fields they need can request them up front (see {@link #load(Field...)}),
+ * the view then does only as much work as required to provide these.
+ * 
  * http://www.awaresystems.be/imaging/tiff/faq.html#q3
  */
 public class MetaDataView implements UserDefinedFileAttributeView {
+	
+	/**
+	 * the levels of work done to populate the view
+	 */
+	public enum Tier {
+		NONE, BASIC, DETECT, PARSE
+	}
+	
+	/**
+	 * fields that can be requested up front
+	 */
+	public enum Field {
+		SIZE, LAST_MODIFIED_TIME, MIME_TYPE, DATE_TIME_CREATED, METADATA
+	}
 
 	private static Logger log = LoggerFactory.getLogger(MetaDataView.class);
 	
 	protected static final String NAME = "meta";
 	
-	private Metadata metadata = null;
+	// named attributes, available in addition to the tika meta data keys (see readAttributes)
+	public static final String MIME_TYPE = "mimeType";
+	public static final String DATE_TIME_CREATED = "dateTimeCreated";
+	public static final String FILENAME_EXTENSION = "filenameExtension";
+	private static final Map<String, Digest> DIGEST_ATTRIBUTES = new HashMap<>();
+	static {
+		for(Digest d : Digest.values()) {
+			DIGEST_ATTRIBUTES.put(d.name().toLowerCase(), d);
+		}
+	}
+	
+	// meta data, parsed on first access and kept in compact form (see getSnapshot)
+	private volatile MetaDataSnapshot snapshot = null;
+	
+	// mime type and exif header read straight from the file header (see detect)
+	private String detectedMimeType = null;
+	private ExifHeader exif = null;
+	private boolean detected = false;
 
 	protected MetaDataPath path = null;
 	
-	private Tika tika = null;
+	// maximum number of characters of document text kept in full text mode
+	public static final int FULLTEXT_LIMIT = 100 * 1000;
+	
+	private String text = null;
+	
+	// digests computed so far (see getDigests)
+	private final Map<Digest, String> digests = new EnumMap<>(Digest.class);
 	
-	@SuppressWarnings("unused")
-	public MetaDataView(MetaDataPath path) throws Exception {
+	// sidecar carrying the capture data (see getSidecar)
+	private SidecarResolver.Sidecar sidecar = null;
+	private boolean sidecarResolved = false;
+	
+	// offset and length of the embedded thumbnail, {-1, 0} if there is none (see getThumbnail)
+	private volatile long[] thumbnail = null;
+	
+	// creation date restored from extended attributes (see restore)
+	private LocalDateTime storedDateTimeCreated = null;
+	
+	// basic attributes of the file at the time the meta data was extracted, these also
+	// identify the entry in the persistent meta data store (see getBasicAttributes)
+	protected BasicFileAttributes attrs = null;
+	
+	/**
+	 * the file is parsed lazily, i.e. not until meta data is requested that can't be read 
+	 * from the file header directly (see {@link #getSnapshot()})
+	 */
+	public MetaDataView(MetaDataPath path) {
 		this.path = path;
-		this.tika = new Tika();
-        this.metadata = new Metadata();
-        try (InputStream stream = TikaInputStream.get(this.path.getBytes(), metadata)) {
-        	String mimeType = tika.detect(stream, metadata);
-        	Parser parser = new AutoDetectParser();
-        	parser.parse(stream, new BodyContentHandler(), metadata, new ParseContext());
-        }
-   	}
+	}
+	
+	/**
+	 * restore previously extracted meta data from the persistent store
+	 */
+	protected MetaDataView(MetaDataPath path, MetaDataStore.Entry entry) {
+		this.path = path;
+		this.snapshot = entry.snapshot;
+		this.digests.putAll(entry.digests);
+		this.thumbnail = entry.thumbnail;
+	}
+	
+	/**
+	 * restore values previously kept in extended attributes (see {@link MetaDataXattrs})
+	 */
+	protected void restore(Map<String, String> values) {
+		synchronized(digests) {
+			for(Map.Entry<String, Digest> d : DIGEST_ATTRIBUTES.entrySet()) {
+				String value = values.get(d.getKey());
+				if(null != value) {
+					digests.putIfAbsent(d.getValue(), value);
+				}
+			}
+		}
+		String created = values.get(DATE_TIME_CREATED);
+		if(null != created) {
+			try {
+				storedDateTimeCreated = LocalDateTime.parse(created);
+			} catch (DateTimeParseException e) {
+				log.debug("invalid creation date {} stored with {}", created, path);
+			}
+		}
+	}
+	
+	/**
+	 * meta data of the file. the file is parsed on first access, failures are logged
+	 * and result in empty meta data. the tika meta data is converted into a compact 
+	 * snapshot right away.
+	 */
+	protected MetaDataSnapshot getSnapshot() {
+		MetaDataSnapshot s = snapshot;
+		if(null == s) {
+			synchronized(this) {
+				s = snapshot;
+				if(null == s) {
+					Metadata m = null;
+					long limit = path.getFileSystem().getParseLimit();
+					try {
+						try {
+							m = parse(limit);
+						} catch (Exception e) {
+							if(limit <= 0 || Files.size(path.getDelegate()) <= limit) {
+								throw e;
+							}
+							// ...the parser might have choked on the truncated stream, so try again with the whole file
+							log.debug("failed to parse the first {} bytes of {}, streaming whole file", limit, path, e);
+							m = parse(0);
+						}
+					} catch (Exception e) {
+						log.warn("failed to parse meta data of {}", path, e);
+						m = new Metadata();
+					}
+					s = MetaDataSnapshot.of(m, dateTimeCreated(m), getSize(), path.getFileSystem().isSnapshotOffHeap());
+					snapshot = s;
+					this.persist();
+				}
+			}
+		}
+		return s;
+	}
+	
+	/**
+	 * resolve the given fields, doing only as much work as required
+	 * @return this view
+	 */
+	public MetaDataView load(Field... fields) {
+		for(Field f : fields) {
+			switch(f) {
+				case SIZE: getSize(); break;
+				case LAST_MODIFIED_TIME: getLastModifiedTime(); break;
+				case MIME_TYPE: getMimeType(); break;
+				case DATE_TIME_CREATED: getDateTimeCreated(); break;
+				case METADATA: getSnapshot(); break;
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * @return the highest tier populated so far
+	 */
+	public Tier getTier() {
+		return null != snapshot ? Tier.PARSE : (detected ? Tier.DETECT : (null != attrs ? Tier.BASIC : Tier.NONE));
+	}
+	
+	/**
+	 * basic attributes of the file, read once
+	 */
+	protected synchronized BasicFileAttributes getBasicAttributes() throws IOException {
+		if(null == attrs) {
+			attrs = path.readAttributes();
+		}
+		return attrs;
+	}
+	
+	/**
+	 * detect mime type and read the exif header from the first bytes of the file
+	 */
+	protected synchronized void detect() {
+		if(!detected) {
+			try {
+				ByteBuffer header = ExifHeader.readHeader(path.getDelegate());
+				exif = ExifHeader.read(header);
+				Detector detector = path.getFileSystem().provider().getParserRegistry().getDetector();
+				try (InputStream stream = TikaInputStream.get(new ByteArrayInputStream(header.array(), 0, header.limit()))) {
+					detectedMimeType = detector.detect(stream, new Metadata()).toString();
+				}
+			} catch (IOException e) {
+				log.debug("failed to read header of {}", path, e);
+			}
+			detected = true;
+		}
+	}
+	
+	/**
+	 * sidecar file carrying the capture data of this file, e.g. MVI_3198.THM next to MVI_3198.AVI
+	 * @return the sidecar or null if there is none
+	 * @see SidecarResolver
+	 */
+	public synchronized SidecarResolver.Sidecar getSidecar() {
+		if(!sidecarResolved) {
+			sidecar = path.getFileSystem().getSidecarResolver().resolve(path.getDelegate());
+			sidecarResolved = true;
+		}
+		return sidecar;
+	}
+	
+	/**
+	 * exif header read straight from the beginning of the file, without a full parse.
+	 * @return the header or null if the file is neither a jpeg nor a tiff file
+	 */
+	public ExifHeader getExifHeader() {
+		detect();
+		return exif;
+	}
+	
+	/**
+	 * content of the file if it can be had without copying it, i.e. memory mapped or from the 
+	 * content cache (see {@link li.excessive.fs.wrap.WrapPath#getContent()})
+	 * @return the content or null if the file is to be streamed instead
+	 */
+	private ByteBuffer content() {
+		try {
+			if(path.isMappable() || getSize() <= path.getFileSystem().getContentCache().getMaxEntrySize()) {
+				return path.getContent();
+			}
+		} catch (IOException e) {
+			log.debug("failed to access content of {}, streaming", path, e);
+		}
+		return null;
+	}
+	
+	/**
+	 * locate the embedded jpeg thumbnail, i.e. the one referenced by IFD1 of the exif header. 
+	 * canon THM files are thumbnails themselves, so if these don't embed a (smaller) one, the 
+	 * whole file is used. the location is kept along with the other meta data.
+	 * @return offset and length of the thumbnail within the file, {-1, 0} if there is none
+	 */
+	protected long[] getThumbnail() {
+		long[] t = thumbnail;
+		if(null == t) {
+			ExifHeader h = getExifHeader();
+			long size = getSize();
+			if(null != h && h.getThumbnailOffset() >= 0 && h.getThumbnailOffset() + h.getThumbnailLength() <= size) {
+				t = new long[] { h.getThumbnailOffset(), h.getThumbnailLength() };
+			} else if(null != h && "thm".equalsIgnoreCase(getFilenameExtension()) && size > 0) {
+				t = new long[] { 0, size };
+			} else {
+				t = new long[] { -1, 0 };
+			}
+			thumbnail = t;
+			this.persist();
+		}
+		return t;
+	}
+	
+	/**
+	 * stream (at most limit bytes of) the file through the parser. unless full text extraction
+	 * is enabled, the body content is discarded (see {@link MetaDataOnlyHandler}).
+	 * @param limit maximum number of bytes to read, a value &lt;= 0 means unbounded
+	 */
+	private Metadata parse(long limit) throws Exception {
+		Metadata metadata = new Metadata();
+		ParserRegistry registry = path.getFileSystem().provider().getParserRegistry();
+		WriteOutContentHandler text = null;
+		ContentHandler handler = null;
+		if(path.getFileSystem().isFulltext()) {
+			text = new WriteOutContentHandler(FULLTEXT_LIMIT);
+			handler = new BodyContentHandler(text);
+		} else {
+			detect();
+			handler = new MetaDataOnlyHandler(detectedMimeType);
+		}
+		ByteBuffer content = content();
+		try (SeekableByteChannel channel = null != content ? null : Files.newByteChannel(path.getDelegate())) {
+			metadata.set(Metadata.CONTENT_LENGTH, Long.toString(null != content ? content.remaining() : channel.size()));
+			InputStream in = null != content ? new ByteBufferInputStream(content) : Channels.newInputStream(channel);
+			try (InputStream stream = TikaInputStream.get(new BoundedInputStream(in, limit))) {
+				// the auto detect parser takes care of detecting the mime type (see getMimeType)
+				registry.getParser().parse(stream, handler, metadata, new ParseContext());
+			} catch (Exception e) {
+				if(MetaDataOnlyHandler.isStop(e)) {
+					log.trace("meta data complete, stopped parsing {}", path);
+				} else if(null != text && text.isWriteLimitReached(e)) {
+					log.debug("text of {} truncated to {} characters", path, FULLTEXT_LIMIT);
+				} else {
+					throw e;
+				}
+			}
+		}
+		this.text = null != text ? text.toString() : null;
+		return metadata;
+	}
+	
+	/**
+	 * document text, only available if full text extraction has been enabled for the file system 
+	 * (see {@link MetaDataFilesystem#FULLTEXT}). the text is truncated to {@value #FULLTEXT_LIMIT} characters.
+	 * @return the text or null if not extracted
+	 */
+	public String getText() {
+		return text;
+	}
 	
 	@Override
 	public String name() {
 		return NAME;
 	}
 
+	/**
+	 * @return names of all tika meta data keys in alphabetical order (read-only)
+	 */
 	@Override
 	public List<String> list() {
-		List<String> attrs = new LinkedList<>();
-		Collections.addAll(attrs, metadata.names());
-//		Comparator<String> b = (String p, String q) -> p.compareTo(q);
-		Collections.sort(attrs);
-		return attrs;
+		return getSnapshot().names();
 	}
 
+	/**
+	 * size of the utf-8 encoded attribute value (see {@link #read(String, ByteBuffer)})
+	 */
 	@Override
 	public int size(String name) throws IOException {
-		throw new UnsupportedOperationException("not (yet) immplemented.");
+		String[] values = values(name);
+		int size = Math.max(0, values.length - 1);
+		for(String v : values) {
+			for(int i = 0; i < v.length(); i++) {
+				char c = v.charAt(i);
+				if(c < 0x80) {
+					size += 1;
+				} else if(c < 0x800) {
+					size += 2;
+				} else if(Character.isHighSurrogate(c)) {
+					size += 4;
+					i++;
+				} else {
+					size += 3;
+				}
+			}
+		}
+		return size;
 	}
 	
+	/**
+	 * read the utf-8 encoded value of an attribute (a tika meta data key or one of the named 
+	 * attributes such as {@value #MIME_TYPE}) into the buffer. the values of multi valued
+	 * attributes are separated by line feeds.
+	 */
 	@Override
 	public int read(String name, ByteBuffer dst) throws IOException {
-		throw new UnsupportedOperationException("not (yet) immplemented.");
+		String[] values = values(name);
+		int size = size(name);
+		if(dst.remaining() < size) {
+			throw new IOException("insufficient space in buffer, " + size + " bytes required to read " + name);
+		}
+		int start = dst.position();
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0) {
+				dst.put((byte)'\n');
+			}
+			encoder.reset();
+			encoder.encode(CharBuffer.wrap(values[i]), dst, true);
+			encoder.flush(dst);
+		}
+		return dst.position() - start;
+	}
+	
+	private String[] values(String name) throws IOException {
+		String[] values = null;
+		Object v = readNamedAttribute(name);
+		if(null != v) {
+			values = new String[] { v.toString() };
+		} else if(!isNamedAttribute(name)) {
+			values = getSnapshot().getValues(name);
+		}
+		if(null == values || 0 == values.length) {
+			throw new IOException("attribute " + name + " not found for " + path);
+		}
+		return values;
+	}
+	
+	private static boolean isNamedAttribute(String name) {
+		return MIME_TYPE.equals(name) || DATE_TIME_CREATED.equals(name) || FILENAME_EXTENSION.equals(name) 
+				|| DIGEST_ATTRIBUTES.containsKey(name);
+	}
+	
+	/**
+	 * @return value of a named attribute or null if not available (or not a named attribute)
+	 */
+	private Object readNamedAttribute(String name) throws IOException {
+		Object v = null;
+		if(MIME_TYPE.equals(name)) {
+			v = getMimeType();
+		} else if(DATE_TIME_CREATED.equals(name)) {
+			v = getDateTimeCreated();
+		} else if(FILENAME_EXTENSION.equals(name)) {
+			v = getFilenameExtension();
+		} else if(DIGEST_ATTRIBUTES.containsKey(name)) {
+			Digest d = DIGEST_ATTRIBUTES.get(name);
+			v = getDigests(d).get(d);
+		}
+		return v;
+	}
+	
+	/**
+	 * read a set of attributes at once. besides the tika meta data keys, the named attributes
+	 * {@value #MIME_TYPE}, {@value #DATE_TIME_CREATED}, {@value #FILENAME_EXTENSION} and the digests 
+	 * (md5, sha1, sha256, crc32) are supported. digests requested together are computed in a 
+	 * single pass. '*' selects all attributes except for digests that haven't been computed yet.
+	 * attributes that aren't available are omitted.
+	 * @param names attribute names or '*'
+	 * @return attribute values, multi valued tika meta data as list
+	 */
+	public Map<String, Object> readAttributes(String... names) throws IOException {
+		Map<String, Object> map = new HashMap<>();
+		boolean all = Arrays.asList(names).contains("*");
+		Set<Digest> requested = EnumSet.noneOf(Digest.class);
+		if(all) {
+			synchronized(digests) {
+				requested.addAll(digests.keySet());
+			}
+		}
+		for(String name : names) {
+			if(DIGEST_ATTRIBUTES.containsKey(name)) {
+				requested.add(DIGEST_ATTRIBUTES.get(name));
+			}
+		}
+		if(!requested.isEmpty()) {
+			for(Map.Entry<Digest, String> e : getDigests(requested.toArray(new Digest[requested.size()])).entrySet()) {
+				map.put(e.getKey().name().toLowerCase(), e.getValue());
+			}
+		}
+		
+		Collection<String> keys = all ? Arrays.asList(MIME_TYPE, DATE_TIME_CREATED, FILENAME_EXTENSION) : Arrays.asList(names);
+		for(String name : keys) {
+			if(isNamedAttribute(name)) {
+				if(!DIGEST_ATTRIBUTES.containsKey(name)) {
+					Object v = readNamedAttribute(name);
+					if(null != v) {
+						map.put(name, v);
+					}
+				}
+			} else if(!"*".equals(name)) {
+				putMetadata(map, name);
+			}
+		}
+		if(all) {
+			for(String name : getSnapshot().names()) {
+				putMetadata(map, name);
+			}
+		}
+		return map;
+	}
+	
+	private void putMetadata(Map<String, Object> map, String name) {
+		MetaDataSnapshot metadata = getSnapshot();
+		if(metadata.isMultiValued(name)) {
+			map.put(name, Arrays.asList(metadata.getValues(name)));
+		} else if(null != metadata.get(name)) {
+			map.put(name, metadata.get(name));
+		}
 	}
 
 	@Override
@@ -90,6 +527,7 @@ public class MetaDataView implements UserDefinedFileAttributeView {
 	}
 	
 	public List<String> read(String name) {
+		MetaDataSnapshot metadata = getSnapshot();
 		List<String> values = new LinkedList<>();
 		if(metadata.isMultiValued(name)) {
 			Collections.addAll(values, metadata.getValues(name));
@@ -100,19 +538,89 @@ public class MetaDataView implements UserDefinedFileAttributeView {
 	}
 	
 	/**
-	 * generates the md5 hash value of the file
-	 * @return alphanumeric hash value
+	 * computes the requested digests of the file in a single pass. digests computed earlier
+	 * are memoized, so the file is only read if any of the requested ones is missing.
+	 * @param requested digests to compute
+	 * @return lower case hex encoded digest values
+	 * @throws IOException
 	 */
-	public String getMd5() {
-		String md5 = null;
+	public Map<Digest, String> getDigests(Digest... requested) throws IOException {
+		Map<Digest, String> values = new EnumMap<>(Digest.class);
+		Set<Digest> missing = EnumSet.noneOf(Digest.class);
+		synchronized(digests) {
+			for(Digest d : requested) {
+				if(!digests.containsKey(d)) {
+					missing.add(d);
+				}
+			}
+		}
+		// ...computed outside the lock, which is always taken last: accessing the content may 
+		// read the (synchronized) file attributes and getSnapshot() persists holding this view.
+		// concurrent requests for the same digests may compute them twice.
+		if(!missing.isEmpty()) {
+			ByteBuffer content = content();
+			Map<Digest, String> computed = null != content ? DigestEngine.digest(content, missing) : DigestEngine.digest(path.getDelegate(), missing);
+			synchronized(digests) {
+				digests.putAll(computed);
+			}
+			this.persist();
+		}
+		synchronized(digests) {
+			for(Digest d : requested) {
+				values.put(d, digests.get(d));
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * write meta data and digests to the persistent store and extended attributes (if in use)
+	 */
+	protected void persist() {
+		MetaDataStore store = path.getFileSystem().getStore();
+		if(null != store && null != attrs) {
+			synchronized(digests) {
+				store.save(path.getDelegate(), attrs, new MetaDataStore.Entry(snapshot, new EnumMap<>(digests), thumbnail));
+			}
+		}
+		if(path.getFileSystem().isXattr(path.getDelegate())) {
+			Map<String, String> values = new HashMap<>();
+			synchronized(digests) {
+				for(Map.Entry<String, Digest> d : DIGEST_ATTRIBUTES.entrySet()) {
+					if(digests.containsKey(d.getValue())) {
+						values.put(d.getKey(), digests.get(d.getValue()));
+					}
+				}
+			}
+			MetaDataSnapshot s = snapshot;
+			LocalDateTime created = null != s ? s.getDateTimeCreated() : storedDateTimeCreated;
+			if(null != created) {
+				values.put(DATE_TIME_CREATED, created.toString());
+			}
+			try {
+				MetaDataXattrs.write(path.getDelegate(), getBasicAttributes(), values);
+			} catch (IOException e) {
+				log.debug("failed to read attributes of {}", path, e);
+			}
+		}
+	}
+	
+	private String getDigest(Digest digest) {
+		String value = null;
 		try {
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			md.update(path.getBytes());
-			md5 = new BigInteger(1, md.digest()).toString(16);
+			value = getDigests(digest).get(digest);
 		} catch (Exception e) {
-			log.warn("failed to calculate md5 sum of {}", path, e);
+			log.warn("failed to calculate {} of {}", digest, path, e);
 		}
-		return md5;
+		return value;
+	}
+	
+	/**
+	 * generates the md5 hash value of the file
+	 * @return alphanumeric hash value
+	 */
+	public String getMd5() {
+		return getDigest(Digest.MD5);
 	}
 
 	/**
@@ -120,20 +628,16 @@ public class MetaDataView implements UserDefinedFileAttributeView {
 	 * @return alphanumeric hash value
 	 */
 	public String getSha1() {
-		String sha1 = null;
-		try(Formatter f = new Formatter()) {
-			MessageDigest sha = MessageDigest.getInstance("SHA-1");
-			sha.update(path.getBytes());
-		    for (byte b : sha.digest()) {
-		        f.format("%02x", b);
-		    }
-		    sha1 = f.toString();
-		} catch (Exception e) {
-			log.warn("failed to calculate md5 sum of " + path, e);
-		}
-		return sha1;
+		return getDigest(Digest.SHA1);
 	}
 	
+	/**
+	 * generates the sha256 hash value of the file
+	 * @return alphanumeric hash value
+	 */
+	public String getSha256() {
+		return getDigest(Digest.SHA256);
+	}
 	
 	/**
 	 * CRC-32 checksum
@@ -141,17 +645,45 @@ public class MetaDataView implements UserDefinedFileAttributeView {
 	 * @throws IOException
 	 */
 	public String getCrc32() throws IOException {
-		CRC32 crc32 = new CRC32();
-		crc32.update(path.getBytes());
-		return Long.toHexString(crc32.getValue());
+		return getDigests(Digest.CRC32).get(Digest.CRC32);
 	}
 	
 	/**
-	 * mime type (e.g. image/jpeg). alias of 'Content-Type'
+	 * mime type (e.g. image/jpeg). alias of 'Content-Type' once the file has been parsed,
+	 * otherwise detected from the magic bytes of the file.
 	 * @return
 	 */
 	public String getMimeType() {
-		return metadata.get(Metadata.CONTENT_TYPE);
+		MetaDataSnapshot s = snapshot;
+		if(null != s) {
+			return s.get(Metadata.CONTENT_TYPE);
+		}
+		detect();
+		return detectedMimeType;
+	}
+	
+	/**
+	 * @return size of the file in bytes or -1 if unknown
+	 */
+	public long getSize() {
+		try {
+			return getBasicAttributes().size();
+		} catch (IOException e) {
+			log.debug("failed to read attributes of {}", path, e);
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return last modified time of the file or null if unknown
+	 */
+	public FileTime getLastModifiedTime() {
+		try {
+			return getBasicAttributes().lastModifiedTime();
+		} catch (IOException e) {
+			log.debug("failed to read attributes of {}", path, e);
+			return null;
+		}
 	}
 	
 	/**
@@ -166,12 +698,77 @@ public class MetaDataView implements UserDefinedFileAttributeView {
 	 * tries to determine a date/time when the file was originally created. 
 	 * for jpeg images with exif header this is the corresponding 'DateTimeOriginal' field,
 	 * aggregated with the value 'SubSecTimeOriginal' (indicating the fraction of seconds)
-	 * if present.
+	 * if present. video files are dated by their sidecar (see {@link #getSidecar()}) if any.
 	 * @return
 	 */
 	public LocalDateTime getDateTimeCreated() {
 		LocalDateTime ldt = null;
 		log.trace("determine creation date of {}", path);
+		// unless the file has been parsed already, read the exif header directly...this avoids
+		// a full parse for jpeg images, which is by far the most common case
+		if(null == snapshot && null != storedDateTimeCreated) {
+			log.trace("...restored from extended attributes");
+			return storedDateTimeCreated;
+		}
+		if(null == snapshot) {
+			ExifHeader h = getExifHeader();
+			ldt = null != h ? h.getDateTimeOriginal() : null;
+			if(null != ldt) {
+				log.trace("...found date/time original in exif header");
+			}
+		}
+		// ...video files usually come with a sidecar carrying the capture data, which is
+		// preferred over parsing the video itself
+		if(null == ldt) {
+			SidecarResolver.Sidecar s = getSidecar();
+			ldt = null != s ? s.getDateTimeCreated() : null;
+			if(null != ldt) {
+				log.trace("...found date/time in sidecar");
+			}
+		}
+		// ...otherwise it's been determined from the tika meta data when parsing
+		if(null == ldt) {
+			ldt = getSnapshot().getDateTimeCreated();
+		}
+		return ldt;
+	}
+	
+	/**
+	 * camera the file was recorded with, i.e. exif make and model combined (the model usually
+	 * repeats the make, e.g. 'Canon' / 'Canon DIGITAL IXUS 40', in which case it's used as is).
+	 * read from the exif header if present, otherwise from the sidecar (see {@link #getSidecar()})
+	 * or the tika meta data.
+	 * @return camera or null if unknown
+	 */
+	public String getCamera() {
+		String make = null;
+		String model = null;
+		ExifHeader h = null == snapshot ? getExifHeader() : null;
+		SidecarResolver.Sidecar sc = null == h ? getSidecar() : null;
+		if(null != h) {
+			make = h.getMake();
+			model = h.getModel();
+		} else if(null != sc) {
+			make = sc.getMake();
+			model = sc.getModel();
+		} else {
+			MetaDataSnapshot s = getSnapshot();
+			make = s.get(TIFF.EQUIPMENT_MAKE.getName());
+			model = s.get(TIFF.EQUIPMENT_MODEL.getName());
+		}
+		make = null != make ? make.trim() : "";
+		model = null != model ? model.trim() : "";
+		if(model.isEmpty()) {
+			return make.isEmpty() ? null : make;
+		}
+		return make.isEmpty() || model.startsWith(make) ? model : make + " " + model;
+	}
+	
+	/**
+	 * determine the creation date/time from tika meta data
+	 */
+	private LocalDateTime dateTimeCreated(Metadata metadata) {
+		LocalDateTime ldt = null;
 		// try date/time original first...works for all dsc images with exif header...
 		if(null == ldt) {
 			try {
@@ -179,9 +776,7 @@ public class MetaDataView implements UserDefinedFileAttributeView {
 				String dt = metadata.get("Date/Time Original");
 				String ms = metadata.get("Sub-Sec Time");
 				// add faction of seconds if appropriate field is set...
-				dt = dt + "." + String.format("%1$-3s", (null != ms ? ms : "")).replace(' ', '0');
-				DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss.SSS");
-				ldt = LocalDateTime.parse(dt, formatter);
+				ldt = ExifHeader.parseDateTime(dt, ms);
 				log.trace("...found date/time original");
 			} catch (Exception e) {
 				log.trace("...date/time original not found");
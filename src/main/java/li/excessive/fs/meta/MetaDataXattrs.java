@@ -0,0 +1,90 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * computed meta data (digests, creation date) kept in user defined extended attributes of 
+ * the file itself, e.g. 'user.meta.sha1' on linux. the size and last modified time of the file
+ * are stored along with the values, which are discarded once these don't match anymore.
+ * reading them back costs a few getxattr calls rather than hashing or parsing the file.
+ */
+public class MetaDataXattrs {
+
+	private static Logger log = LoggerFactory.getLogger(MetaDataXattrs.class);
+	
+	public static final String PREFIX = "meta.";
+	
+	private static final String SIZE = PREFIX + "size";
+	private static final String LAST_MODIFIED_TIME = PREFIX + "lastModifiedTime";
+	
+	/**
+	 * read the values stored with the file
+	 * @param delegate the file
+	 * @param attrs current attributes of the file
+	 * @return values by name (without prefix, e.g. 'sha1'), empty if there are none or they are out of date
+	 */
+	public static Map<String, String> read(Path delegate, BasicFileAttributes attrs) {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(delegate, UserDefinedFileAttributeView.class);
+		if(null == view) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> values = new HashMap<>();
+		try {
+			for(String name : view.list()) {
+				if(name.startsWith(PREFIX)) {
+					ByteBuffer b = ByteBuffer.allocate(view.size(name));
+					view.read(name, b);
+					b.flip();
+					values.put(name, StandardCharsets.UTF_8.decode(b).toString());
+				}
+			}
+		} catch (IOException e) {
+			log.debug("failed to read extended attributes of {}", delegate, e);
+			return Collections.emptyMap();
+		}
+		if(!String.valueOf(attrs.size()).equals(values.remove(SIZE)) 
+				|| !String.valueOf(attrs.lastModifiedTime().toMillis()).equals(values.remove(LAST_MODIFIED_TIME))) {
+			log.trace("extended attributes of {} missing or out of date", delegate);
+			return Collections.emptyMap();
+		}
+		Map<String, String> result = new HashMap<>();
+		values.forEach((k, v) -> result.put(k.substring(PREFIX.length()), v));
+		return result;
+	}
+	
+	/**
+	 * store values with the file, failures are logged only
+	 * @param delegate the file
+	 * @param attrs attributes of the file the values were computed from
+	 * @param values values by name (without prefix)
+	 */
+	public static void write(Path delegate, BasicFileAttributes attrs, Map<String, String> values) {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(delegate, UserDefinedFileAttributeView.class);
+		if(null == view || values.isEmpty()) {
+			return;
+		}
+		try {
+			for(Map.Entry<String, String> e : values.entrySet()) {
+				view.write(PREFIX + e.getKey(), StandardCharsets.UTF_8.encode(e.getValue()));
+			}
+			// ...written last, so values are valid only once all of them are written
+			view.write(SIZE, StandardCharsets.UTF_8.encode(String.valueOf(attrs.size())));
+			view.write(LAST_MODIFIED_TIME, StandardCharsets.UTF_8.encode(String.valueOf(attrs.lastModifiedTime().toMillis())));
+		} catch (IOException e) {
+			log.debug("failed to write extended attributes of {}", delegate, e);
+		}
+	}
+	
+}
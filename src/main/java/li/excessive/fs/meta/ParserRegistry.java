@@ -0,0 +1,49 @@
+package li.excessive.fs.meta;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * detector and parser shared by all meta data views of a provider. loading the tika configuration
+ * (i.e. looking up all detectors and parsers through the service loader) is expensive, so this is
+ * done only once. detector and parser are stateless and may be used by many threads concurrently,
+ * parse contexts however are not, so a fresh one is created for each parse.
+ */
+public class ParserRegistry {
+
+	private static Logger log = LoggerFactory.getLogger(ParserRegistry.class);
+	
+	private final TikaConfig config;
+	
+	private final Detector detector;
+	
+	private final Parser parser;
+	
+	public ParserRegistry() {
+		this(TikaConfig.getDefaultConfig());
+	}
+	
+	public ParserRegistry(TikaConfig config) {
+		log.debug("loading parser registry");
+		this.config = config;
+		this.detector = config.getDetector();
+		this.parser = new AutoDetectParser(config);
+	}
+	
+	public TikaConfig getConfig() {
+		return config;
+	}
+	
+	public Detector getDetector() {
+		return detector;
+	}
+	
+	public Parser getParser() {
+		return parser;
+	}
+
+}
@@ -0,0 +1,225 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * resolves sidecar files, i.e. small files next to a (large) video file carrying its capture
+ * data, matched by base name, e.g. MVI_3198.THM (a jpeg with exif header, as written by canon
+ * cameras) or MVI_3198.XMP next to MVI_3198.AVI. reading the sidecar header is a lot cheaper
+ * than parsing the video itself.
+ *
+ * the sidecars of a directory are listed once and cached until the directory is modified.
+ */
+public class SidecarResolver {
+
+	private static Logger log = LoggerFactory.getLogger(SidecarResolver.class);
+
+	/**
+	 * sidecar file name extensions (lower case), in order of preference
+	 */
+	public static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList("thm", "xmp"));
+
+	// maximum size of xmp sidecars read
+	private static final int XMP_LIMIT = 1024 * 1024;
+
+	/**
+	 * capture data read from a sidecar
+	 */
+	public static class Sidecar {
+		private final Path path;
+		private final LocalDateTime dateTimeCreated;
+		private final String make;
+		private final String model;
+
+		protected Sidecar(Path path, LocalDateTime dateTimeCreated, String make, String model) {
+			this.path = path;
+			this.dateTimeCreated = dateTimeCreated;
+			this.make = make;
+			this.model = model;
+		}
+		/**
+		 * @return the sidecar file (of the delegate file system)
+		 */
+		public Path getPath() {
+			return path;
+		}
+		public LocalDateTime getDateTimeCreated() {
+			return dateTimeCreated;
+		}
+		public String getMake() {
+			return make;
+		}
+		public String getModel() {
+			return model;
+		}
+		@Override
+		public String toString() {
+			return "sidecar [path=" + path + ", make=" + make + ", model=" + model + ", dateTimeCreated=" + dateTimeCreated + "]";
+		}
+	}
+
+	// sidecars of a directory, keyed by lower case base name
+	private static class Directory {
+		private final FileTime lastModifiedTime;
+		private final Map<String, List<Path>> sidecars;
+
+		Directory(FileTime lastModifiedTime, Map<String, List<Path>> sidecars) {
+			this.lastModifiedTime = lastModifiedTime;
+			this.sidecars = sidecars;
+		}
+	}
+
+	// keyed by delegate directory
+	private final Map<Path, Directory> directories = new ConcurrentHashMap<>();
+
+	/**
+	 * look up the sidecar of a file and read it
+	 * @param delegate the (unwrapped) file
+	 * @return capture data or null if the file has no (readable) sidecar or is a sidecar itself
+	 */
+	public Sidecar resolve(Path delegate) {
+		String[] name = split(delegate.getFileName());
+		if(null == name || EXTENSIONS.contains(name[1])) {
+			return null;
+		}
+		for(Path sidecar : sidecars(delegate.getParent(), name[0])) {
+			try {
+				Sidecar s = "xmp".equals(split(sidecar.getFileName())[1]) ? readXmp(sidecar) : readExif(sidecar);
+				if(null != s) {
+					log.trace("found {} for {}", s, delegate);
+					return s;
+				}
+			} catch (IOException e) {
+				log.debug("failed to read sidecar {}", sidecar, e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the sidecars with the given (lower case) base name, in order of preference
+	 */
+	private List<Path> sidecars(Path dir, String baseName) {
+		if(null == dir) {
+			return Collections.emptyList();
+		}
+		try {
+			FileTime lastModifiedTime = Files.getLastModifiedTime(dir);
+			Directory d = directories.get(dir);
+			if(null == d || !lastModifiedTime.equals(d.lastModifiedTime)) {
+				Map<String, List<Path>> sidecars = new HashMap<>();
+				try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir, p -> {
+						String[] n = split(p.getFileName());
+						return null != n && EXTENSIONS.contains(n[1]);
+					})) {
+					for(Path p : ds) {
+						sidecars.computeIfAbsent(split(p.getFileName())[0], k -> new ArrayList<>()).add(p);
+					}
+				}
+				for(List<Path> l : sidecars.values()) {
+					l.sort((a, b) -> EXTENSIONS.indexOf(split(a.getFileName())[1]) - EXTENSIONS.indexOf(split(b.getFileName())[1]));
+				}
+				d = new Directory(lastModifiedTime, sidecars);
+				directories.put(dir, d);
+				log.trace("{} sidecars in {}", sidecars.size(), dir);
+			}
+			return d.sidecars.getOrDefault(baseName, Collections.emptyList());
+		} catch (IOException e) {
+			log.debug("failed to list sidecars in {}", dir, e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * forget the cached sidecars of a directory
+	 */
+	public void invalidate(Path dir) {
+		directories.remove(dir);
+	}
+
+	/**
+	 * @return lower case base name and extension or null if the name has no extension
+	 */
+	private static String[] split(Path fileName) {
+		if(null == fileName) {
+			return null;
+		}
+		String n = fileName.toString();
+		int i = n.lastIndexOf('.');
+		return i > 0 ? new String[] { n.substring(0, i).toLowerCase(), n.substring(i + 1).toLowerCase() } : null;
+	}
+
+	private static Sidecar readExif(Path sidecar) throws IOException {
+		ExifHeader h = ExifHeader.read(sidecar);
+		return null != h ? new Sidecar(sidecar, h.getDateTimeOriginal(), h.getMake(), h.getModel()) : null;
+	}
+
+	// xmp properties, either as attribute or as element
+	private static final Pattern DATE_TIME_ORIGINAL = property("exif:DateTimeOriginal");
+	private static final Pattern CREATE_DATE = property("xmp:CreateDate");
+	private static final Pattern MAKE = property("tiff:Make");
+	private static final Pattern MODEL = property("tiff:Model");
+	private static final Pattern XMP_DATE = Pattern.compile("^(\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}(?::\\d{2}(?:\\.\\d+)?)?)");
+
+	private static Pattern property(String name) {
+		return Pattern.compile(Pattern.quote(name) + "(?:=\"([^\"]*)\"|>([^<]*)<)");
+	}
+
+	/**
+	 * read the capture data from an xmp packet. the few properties required are picked from the
+	 * text directly rather than parsing the rdf.
+	 */
+	private static Sidecar readXmp(Path sidecar) throws IOException {
+		if(Files.size(sidecar) > XMP_LIMIT) {
+			log.debug("ignoring oversized xmp sidecar {}", sidecar);
+			return null;
+		}
+		String xmp = new String(Files.readAllBytes(sidecar), StandardCharsets.UTF_8);
+		String created = value(xmp, DATE_TIME_ORIGINAL);
+		if(null == created) {
+			created = value(xmp, CREATE_DATE);
+		}
+		LocalDateTime ldt = null;
+		if(null != created) {
+			try {
+				// e.g. 2011-08-14T09:35:52.25+02:00, the time zone offset is dropped (local time)
+				Matcher m = XMP_DATE.matcher(created.trim());
+				if(m.find()) {
+					ldt = LocalDateTime.parse(m.group(1));
+				}
+			} catch (DateTimeParseException e) {
+				log.trace("invalid creation date '{}' in {}", created, sidecar);
+			}
+		}
+		return new Sidecar(sidecar, ldt, value(xmp, MAKE), value(xmp, MODEL));
+	}
+
+	private static String value(String xmp, Pattern p) {
+		Matcher m = p.matcher(xmp);
+		if(m.find()) {
+			String v = null != m.group(1) ? m.group(1) : m.group(2);
+			return v.trim().isEmpty() ? null : v.trim();
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,116 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * read-only channel over a range of bytes of another channel, e.g. a thumbnail embedded in
+ * a jpeg file. channels that can't be positioned (such as those of zipfs) are read forward 
+ * to the requested position instead, these can't be positioned backwards though.
+ */
+public class SliceChannel implements SeekableByteChannel {
+
+	private final SeekableByteChannel channel;
+	private final long offset;
+	private final long length;
+	private long position = 0;
+	
+	/**
+	 * @param channel the channel to read from, closed along with this channel
+	 * @param offset start of the range within the channel
+	 * @param length length of the range
+	 */
+	public SliceChannel(SeekableByteChannel channel, long offset, long length) {
+		this.channel = channel;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if(!isOpen()) {
+			throw new ClosedChannelException();
+		}
+		if(position >= length) {
+			return -1;
+		}
+		seek(offset + position);
+		int limit = dst.limit();
+		dst.limit(dst.position() + (int)Math.min(dst.remaining(), length - position));
+		try {
+			int n = channel.read(dst);
+			if(n > 0) {
+				position += n;
+			}
+			return n;
+		} finally {
+			dst.limit(limit);
+		}
+	}
+	
+	private void seek(long target) throws IOException {
+		long current = channel.position();
+		if(current == target) {
+			return;
+		}
+		try {
+			channel.position(target);
+		} catch (UnsupportedOperationException e) {
+			if(target < current) {
+				throw new IOException("channel can't be positioned backwards", e);
+			}
+			ByteBuffer skip = ByteBuffer.allocate((int)Math.min(8192, target - current));
+			while(current < target) {
+				skip.clear().limit((int)Math.min(skip.capacity(), target - current));
+				int n = channel.read(skip);
+				if(n < 0) {
+					throw new IOException("unexpected end of channel");
+				}
+				current += n;
+			}
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public long position() throws IOException {
+		return position;
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("negative position");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		return length;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+}
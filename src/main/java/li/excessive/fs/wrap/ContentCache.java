@@ -0,0 +1,198 @@
+package li.excessive.fs.wrap;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * file content cache shared by all paths of a file system. entries are keyed by file identity 
+ * (the file key if the file system provides one, otherwise the absolute path) along with size 
+ * and last modified time, so modified files are never served from the cache.
+ * the cache is bounded by the total number of bytes held, least recently used entries are 
+ * evicted first. files larger than a given threshold are never cached.
+ */
+public class ContentCache {
+
+	private static Logger log = LoggerFactory.getLogger(ContentCache.class);
+	
+	private static class Key {
+		// not part of the identity, used to invalidate entries of deleted files
+		private final URI uri;
+		private final Object identity;
+		private final FileTime lastModifiedTime;
+		private final long size;
+		
+		Key(Path delegate, BasicFileAttributes attrs) {
+			this.uri = delegate.toAbsolutePath().toUri();
+			this.identity = null != attrs.fileKey() ? attrs.fileKey() : uri;
+			this.lastModifiedTime = attrs.lastModifiedTime();
+			this.size = attrs.size();
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(identity, lastModifiedTime, size);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key k = (Key)obj;
+			return size == k.size && identity.equals(k.identity) && lastModifiedTime.equals(k.lastModifiedTime);
+		}
+	}
+	
+	private final long capacity;
+	
+	private final long maxEntrySize;
+	
+	private final boolean offHeap;
+	
+	// access ordered, i.e. least recently used first
+	private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+	
+	private long weight = 0;
+	private long hits = 0;
+	private long misses = 0;
+	
+	/**
+	 * @param capacity maximum number of bytes held
+	 * @param maxEntrySize files larger than that are not cached
+	 * @param offHeap whether to keep the content in direct buffers
+	 */
+	public ContentCache(long capacity, long maxEntrySize, boolean offHeap) {
+		this.capacity = capacity;
+		this.maxEntrySize = Math.min(maxEntrySize, Math.min(capacity, Integer.MAX_VALUE));
+		this.offHeap = offHeap;
+	}
+	
+	/**
+	 * content of a file, read and cached if not in the cache yet
+	 * @param delegate the (unwrapped) file
+	 * @return read-only buffer holding the whole file or null if it's not a regular file or too 
+	 * large to be cached
+	 */
+	public ByteBuffer get(Path delegate) throws IOException {
+		return get(delegate, Files.readAttributes(delegate, BasicFileAttributes.class));
+	}
+	
+	/**
+	 * content of a file, read and cached if not in the cache yet
+	 * @param delegate the (unwrapped) file
+	 * @param attrs current attributes of the file
+	 * @return read-only buffer holding the whole file or null if it's not a regular file or too 
+	 * large to be cached
+	 */
+	public ByteBuffer get(Path delegate, BasicFileAttributes attrs) throws IOException {
+		if(!attrs.isRegularFile() || attrs.size() > maxEntrySize) {
+			return null;
+		}
+		Key key = new Key(delegate, attrs);
+		synchronized(this) {
+			ByteBuffer b = entries.get(key);
+			if(null != b) {
+				hits++;
+				log.trace("file content retrieved from cache {}", delegate);
+				return b.duplicate();
+			}
+			misses++;
+		}
+		// ...read outside the lock, concurrent misses on the same file may read it twice
+		ByteBuffer b = read(delegate, (int)attrs.size());
+		synchronized(this) {
+			if(!entries.containsKey(key)) {
+				log.trace("caching file content {}", delegate);
+				entries.put(key, b);
+				weight += b.capacity();
+				evict();
+			}
+		}
+		return b.duplicate();
+	}
+	
+	private ByteBuffer read(Path delegate, int size) throws IOException {
+		ByteBuffer b = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		try(SeekableByteChannel channel = Files.newByteChannel(delegate)) {
+			while(b.hasRemaining() && channel.read(b) >= 0);
+		}
+		b.flip();
+		return b.asReadOnlyBuffer();
+	}
+	
+	private void evict() {
+		Iterator<ByteBuffer> it = entries.values().iterator();
+		while(weight > capacity && it.hasNext()) {
+			weight -= it.next().capacity();
+			it.remove();
+		}
+	}
+	
+	/**
+	 * remove the entries of a file (modified or deleted)
+	 * @param delegate the (unwrapped) file
+	 */
+	public synchronized void invalidate(Path delegate) {
+		URI uri = delegate.toAbsolutePath().toUri();
+		Iterator<Map.Entry<Key, ByteBuffer>> it = entries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Key, ByteBuffer> e = it.next();
+			if(uri.equals(e.getKey().uri)) {
+				weight -= e.getValue().capacity();
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * remove all entries
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+	
+	/**
+	 * @return number of bytes held
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public long getCapacity() {
+		return capacity;
+	}
+	
+	public long getMaxEntrySize() {
+		return maxEntrySize;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "content cache [entries=" + entries.size() + ", weight=" + weight + "/" + capacity + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+
+}
@@ -0,0 +1,189 @@
+package li.excessive.fs.wrap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * asynchronous file channel on top of the file channel of a delegate file system that doesn't
+ * provide asynchronous file channels itself, e.g. zipfs (see
+ * {@link WrapFilesystemProvider#newAsynchronousFileChannel}). operations are run on the given
+ * executor as positional (blocking) operations of the file channel. without an executor a
+ * pool of daemon threads of its own is used, which is shut down as the channel is closed.
+ * operations on a closed channel fail with a {@link ClosedChannelException}.
+ */
+public class WrapAsynchronousFileChannel extends AsynchronousFileChannel {
+
+	private final FileChannel channel;
+
+	private final ExecutorService executor;
+
+	// whether the executor is owned by this channel
+	private final boolean shutdown;
+
+	/**
+	 * @param channel the file channel, closed along with this channel
+	 * @param executor executor to run the operations on or null to use a pool of its own
+	 */
+	public WrapAsynchronousFileChannel(FileChannel channel, ExecutorService executor) {
+		this.channel = channel;
+		this.shutdown = null == executor;
+		this.executor = null != executor ? executor : Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "wrap-async-channel");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			if(shutdown) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	@Override
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public AsynchronousFileChannel truncate(long size) throws IOException {
+		channel.truncate(size);
+		return this;
+	}
+
+	@Override
+	public void force(boolean metaData) throws IOException {
+		channel.force(metaData);
+	}
+
+	private <V, A> void execute(Callable<V> op, A attachment, CompletionHandler<V, ? super A> handler) {
+		if(!isOpen()) {
+			handler.failed(new ClosedChannelException(), attachment);
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				V v = null;
+				try {
+					v = op.call();
+				} catch (Throwable t) {
+					handler.failed(t, attachment);
+					return;
+				}
+				handler.completed(v, attachment);
+			});
+		} catch (RejectedExecutionException e) {
+			// ...the executor of this channel is shut down as the channel is closed concurrently
+			if(isOpen()) {
+				throw e;
+			}
+			handler.failed(new ClosedChannelException(), attachment);
+		}
+	}
+	
+	private <V> Future<V> submit(Callable<V> op) {
+		if(isOpen()) {
+			try {
+				return executor.submit(op);
+			} catch (RejectedExecutionException e) {
+				if(isOpen()) {
+					throw e;
+				}
+			}
+		}
+		CompletableFuture<V> f = new CompletableFuture<>();
+		f.completeExceptionally(new ClosedChannelException());
+		return f;
+	}
+
+	@Override
+	public <A> void lock(long position, long size, boolean shared, A attachment, CompletionHandler<FileLock, ? super A> handler) {
+		execute(() -> new Lock(channel.lock(position, size, shared)), attachment, handler);
+	}
+
+	@Override
+	public Future<FileLock> lock(long position, long size, boolean shared) {
+		return submit(() -> new Lock(channel.lock(position, size, shared)));
+	}
+
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		FileLock l = channel.tryLock(position, size, shared);
+		return null != l ? new Lock(l) : null;
+	}
+
+	@Override
+	public <A> void read(ByteBuffer dst, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		check(dst, position);
+		execute(() -> channel.read(dst, position), attachment, handler);
+	}
+
+	@Override
+	public Future<Integer> read(ByteBuffer dst, long position) {
+		check(dst, position);
+		return submit(() -> channel.read(dst, position));
+	}
+
+	@Override
+	public <A> void write(ByteBuffer src, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		check(src, position);
+		execute(() -> channel.write(src, position), attachment, handler);
+	}
+
+	@Override
+	public Future<Integer> write(ByteBuffer src, long position) {
+		check(src, position);
+		return submit(() -> channel.write(src, position));
+	}
+
+	private static void check(ByteBuffer b, long position) {
+		if(null == b) {
+			throw new NullPointerException();
+		}
+		if(position < 0) {
+			throw new IllegalArgumentException("negative position");
+		}
+	}
+
+	// lock of the file channel, reported as lock of this channel
+	private class Lock extends FileLock {
+		private final FileLock lock;
+
+		Lock(FileLock lock) {
+			super(WrapAsynchronousFileChannel.this, lock.position(), lock.size(), lock.isShared());
+			this.lock = lock;
+		}
+
+		@Override
+		public boolean isValid() {
+			return lock.isValid();
+		}
+
+		@Override
+		public void release() throws IOException {
+			lock.release();
+		}
+	}
+
+}
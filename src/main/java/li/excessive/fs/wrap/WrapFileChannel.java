@@ -0,0 +1,309 @@
+package li.excessive.fs.wrap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * file channel on top of the byte channel of a delegate file system that doesn't provide file
+ * channels itself (see {@link WrapFilesystemProvider#newFileChannel}). the position of this
+ * channel is tracked separately, the byte channel is positioned as needed. byte channels that
+ * can't be positioned (such as those of zipfs) are read forward to the requested position
+ * instead, or reopened to go backwards if opened for reading only, so positional reads work
+ * anyway (albeit slowly). positional writes require a byte channel that can be positioned.
+ *
+ * mapping and locking aren't supported.
+ */
+public class WrapFileChannel extends FileChannel {
+
+	private static Logger log = LoggerFactory.getLogger(WrapFileChannel.class);
+
+	// size of the buffer used to skip and to transfer bytes
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Path delegate;
+
+	private final Set<OpenOption> options;
+
+	private final boolean readable;
+
+	private final boolean writable;
+
+	private final boolean append;
+
+	private SeekableByteChannel channel;
+
+	private long position = 0;
+
+	/**
+	 * @param delegate the (unwrapped) file
+	 * @param options options to open the file with
+	 * @param attrs attributes set when creating the file
+	 */
+	public WrapFileChannel(Path delegate, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		this.delegate = delegate;
+		this.options = new HashSet<>(options);
+		this.append = options.contains(StandardOpenOption.APPEND);
+		this.writable = append || options.contains(StandardOpenOption.WRITE);
+		this.readable = !writable || options.contains(StandardOpenOption.READ);
+		this.channel = Files.newByteChannel(delegate, options, attrs);
+	}
+
+	private void ensureOpen() throws IOException {
+		if(!isOpen()) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	private void ensureReadable() throws IOException {
+		ensureOpen();
+		if(!readable) {
+			throw new NonReadableChannelException();
+		}
+	}
+
+	private void ensureWritable() throws IOException {
+		ensureOpen();
+		if(!writable) {
+			throw new NonWritableChannelException();
+		}
+	}
+
+	/**
+	 * position the byte channel, skipping or reopening it if it can't be positioned
+	 */
+	private void seek(long target) throws IOException {
+		long current = channel.position();
+		if(current == target) {
+			return;
+		}
+		try {
+			channel.position(target);
+			return;
+		} catch (UnsupportedOperationException e) {
+			if(writable || options.contains(StandardOpenOption.DELETE_ON_CLOSE)) {
+				throw e;
+			}
+		}
+		if(target < current) {
+			log.trace("reopening {} to read backwards", delegate);
+			channel.close();
+			channel = Files.newByteChannel(delegate, options);
+			current = 0;
+		}
+		ByteBuffer skip = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, target - current));
+		while(current < target) {
+			skip.clear().limit((int)Math.min(skip.capacity(), target - current));
+			int n = channel.read(skip);
+			if(n < 0) {
+				// ...beyond the end of the file, reads return -1
+				break;
+			}
+			current += n;
+		}
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureReadable();
+		int n = read(dst, position);
+		if(n > 0) {
+			position += n;
+		}
+		return n;
+	}
+
+	@Override
+	public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+		ensureReadable();
+		long total = 0;
+		for(int i = offset; i < offset + length; i++) {
+			int n = read(dsts[i]);
+			if(n < 0) {
+				return 0 == total ? -1 : total;
+			}
+			total += n;
+			if(dsts[i].hasRemaining()) {
+				break;
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src) throws IOException {
+		ensureWritable();
+		int n = 0;
+		if(append) {
+			n = channel.write(src);
+			position = channel.position();
+		} else {
+			n = write(src, position);
+			position += n;
+		}
+		return n;
+	}
+
+	@Override
+	public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		ensureWritable();
+		long total = 0;
+		for(int i = offset; i < offset + length; i++) {
+			total += write(srcs[i]);
+			if(srcs[i].hasRemaining()) {
+				break;
+			}
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized FileChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("negative position");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		ensureOpen();
+		return channel.size();
+	}
+
+	@Override
+	public synchronized FileChannel truncate(long size) throws IOException {
+		ensureWritable();
+		if(size < 0) {
+			throw new IllegalArgumentException("negative size");
+		}
+		channel.truncate(size);
+		position = Math.min(position, size);
+		return this;
+	}
+
+	@Override
+	public synchronized void force(boolean metaData) throws IOException {
+		ensureOpen();
+		// ...nothing to force unless the delegate is a file channel after all
+		if(channel instanceof FileChannel) {
+			((FileChannel)channel).force(metaData);
+		}
+	}
+
+	@Override
+	public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		ensureReadable();
+		if(position < 0 || count < 0) {
+			throw new IllegalArgumentException("negative position or count");
+		}
+		ByteBuffer b = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(1, count)));
+		long total = 0;
+		while(total < count) {
+			b.clear().limit((int)Math.min(b.capacity(), count - total));
+			int n = read(b, position + total);
+			if(n <= 0) {
+				break;
+			}
+			b.flip();
+			while(b.hasRemaining()) {
+				target.write(b);
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		ensureWritable();
+		if(position < 0 || count < 0) {
+			throw new IllegalArgumentException("negative position or count");
+		}
+		if(position > size()) {
+			return 0;
+		}
+		ByteBuffer b = ByteBuffer.allocate((int)Math.min(BUFFER_SIZE, Math.max(1, count)));
+		long total = 0;
+		while(total < count) {
+			b.clear().limit((int)Math.min(b.capacity(), count - total));
+			int n = src.read(b);
+			if(n <= 0) {
+				break;
+			}
+			b.flip();
+			while(b.hasRemaining()) {
+				write(b, position + total + (n - b.remaining()));
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst, long position) throws IOException {
+		ensureReadable();
+		if(position < 0) {
+			throw new IllegalArgumentException("negative position");
+		}
+		seek(position);
+		return channel.read(dst);
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src, long position) throws IOException {
+		ensureWritable();
+		if(position < 0) {
+			throw new IllegalArgumentException("negative position");
+		}
+		seek(position);
+		return channel.write(src);
+	}
+
+	@Override
+	public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public FileLock lock(long position, long size, boolean shared) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected void implCloseChannel() throws IOException {
+		channel.close();
+	}
+
+}
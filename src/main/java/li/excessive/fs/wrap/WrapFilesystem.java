@@ -1,6 +1,7 @@
 package li.excessive.fs.wrap;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
@@ -9,7 +10,12 @@ import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
@@ -17,7 +23,6 @@ import org.slf4j.LoggerFactory;
 
 public class WrapFilesystem extends FileSystem {
 
-	@SuppressWarnings("unused")
 	private static Logger log = LoggerFactory.getLogger(WrapFilesystem.class);
 	
 	protected WrapFilesystemProvider provider = null;
@@ -27,10 +32,176 @@ public class WrapFilesystem extends FileSystem {
 	public static final String CLOSE_CASCADE = "wrap.close.cascade";
 	private Boolean closeCascade = false;
 	
+	/**
+	 * maximum number of bytes of file content cached (see {@link ContentCache}), 64MiB by default
+	 */
+	public static final String CACHE_SIZE = "wrap.cache.size";
+	public static final long DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	
+	/**
+	 * files larger than that are never cached, 8MiB by default
+	 */
+	public static final String CACHE_MAX_ENTRY_SIZE = "wrap.cache.entry.max";
+	public static final long DEFAULT_CACHE_MAX_ENTRY_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * keep cached file content off-heap, disabled by default
+	 */
+	public static final String CACHE_OFFHEAP = "wrap.cache.offheap";
+	
+	private final ContentCache contentCache;
+	
+	/**
+	 * intern paths, i.e. return the same (canonical) path instance for equal delegates as long 
+	 * as it's referenced, so cached content and meta data is shared. disabled by default.
+	 */
+	public static final String INTERN = "wrap.intern";
+	// canonical paths by delegate, null if interning is disabled
+	private final Map<Path, WeakReference<WrapPath>> interned;
+	
+	/**
+	 * capture the basic attributes of directory entries while listing, so reading them from the
+	 * entries (e.g. by {@link java.nio.file.Files#walk} or {@link java.nio.file.Files#isRegularFile}) 
+	 * doesn't stat the files again (see {@link WrapPath#getCachedAttributes}). the attributes 
+	 * are kept until the file is modified through this file system or the watch service reports 
+	 * a modification. disabled by default.
+	 */
+	public static final String PREFETCH = "wrap.prefetch";
+	private final boolean prefetch;
+	
+	/**
+	 * maximum number of modification stamps kept (see {@link #getStamp(Path)}), once exceeded 
+	 * the stamps of all files are outdated at once. 65536 by default.
+	 */
+	public static final String STAMPS_MAX = "wrap.stamps.max";
+	public static final long DEFAULT_STAMPS_MAX = 64 * 1024;
+	private final long maxStamps;
+	
+	// modification stamps of files invalidated (see invalidate), any stamp below the epoch is outdated
+	private final Map<Path, Long> stamps = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+	private volatile long epoch = 0;
+	
+	// creates the paths of this file system
+	private final WrapPathFactory pathFactory;
+	
 	public WrapFilesystem(WrapFilesystemProvider provider, FileSystem delegate, Map<String, ?> env){
+		this(provider, delegate, env, WrapPath::new);
+	}
+	
+	/**
+	 * @param pathFactory creates the paths of this file system, for subclasses wrapping paths
+	 * in a subclass of {@link WrapPath}
+	 */
+	protected WrapFilesystem(WrapFilesystemProvider provider, FileSystem delegate, Map<String, ?> env, WrapPathFactory pathFactory){
 		this.provider = provider;
 		this.delegate = delegate;
-		closeCascade = env.containsKey(CLOSE_CASCADE) ? (Boolean)env.get(CLOSE_CASCADE) : Boolean.FALSE;
+		this.pathFactory = pathFactory;
+		closeCascade = booleanOption(env, CLOSE_CASCADE, false);
+		contentCache = new ContentCache(longOption(env, CACHE_SIZE, DEFAULT_CACHE_SIZE), 
+				longOption(env, CACHE_MAX_ENTRY_SIZE, DEFAULT_CACHE_MAX_ENTRY_SIZE), booleanOption(env, CACHE_OFFHEAP, false));
+		interned = booleanOption(env, INTERN, false) ? new WeakHashMap<>() : null;
+		prefetch = booleanOption(env, PREFETCH, false);
+		maxStamps = longOption(env, STAMPS_MAX, DEFAULT_STAMPS_MAX);
+	}
+	
+	/**
+	 * @param delegate a path of the delegate file system
+	 * @param factory creates the wrap path of the delegate
+	 * @return the canonical path of the delegate if interning is enabled, otherwise a new one
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends WrapPath> T intern(Path delegate, Function<Path, T> factory) {
+		if(null == interned) {
+			return factory.apply(delegate);
+		}
+		synchronized(interned) {
+			WeakReference<WrapPath> ref = interned.get(delegate);
+			WrapPath p = null != ref ? ref.get() : null;
+			if(null == p) {
+				p = factory.apply(delegate);
+				// ...keyed by the delegate of the path, so the entry is dropped along with the path
+				interned.put(p.getDelegate(), new WeakReference<>(p));
+			}
+			return (T)p;
+		}
+	}
+	
+	/**
+	 * @param delegate a path of the delegate file system
+	 * @return the path of this file system wrapping the delegate (interned if enabled)
+	 */
+	public WrapPath wrap(Path delegate) {
+		return intern(delegate, it -> pathFactory.newPath(this, it));
+	}
+	
+	public boolean isInterning() {
+		return null != interned;
+	}
+	
+	public boolean isPrefetching() {
+		return prefetch;
+	}
+	
+	/**
+	 * read a boolean option from the env map. values may be given as {@link Boolean} or as string.
+	 */
+	protected static boolean booleanOption(Map<String, ?> env, String key, boolean defaultValue) {
+		Object v = null != env ? env.get(key) : null;
+		return null == v ? defaultValue : (v instanceof Boolean ? (Boolean)v : Boolean.parseBoolean(v.toString()));
+	}
+	
+	/**
+	 * read a numeric option from the env map. values may be given as {@link Number} or as string.
+	 */
+	protected static long longOption(Map<String, ?> env, String key, long defaultValue) {
+		Object v = null != env ? env.get(key) : null;
+		return null == v ? defaultValue : (v instanceof Number ? ((Number)v).longValue() : Long.parseLong(v.toString().trim()));
+	}
+
+	/**
+	 * @return file content cache shared by all paths of this file system
+	 */
+	public ContentCache getContentCache() {
+		return contentCache;
+	}
+
+	/**
+	 * @param delegate a file of the delegate file system
+	 * @return stamp of the last modification of the file seen (through the watch service), caches 
+	 * of the file are valid as long as its stamp doesn't change
+	 */
+	public long getStamp(Path delegate) {
+		Long stamp = stamps.get(delegate);
+		return Math.max(null != stamp ? stamp : 0, epoch);
+	}
+	
+	/**
+	 * invalidate cached data of a file, called as events of the watch service are retrieved.
+	 * subclasses may override this to invalidate their own caches.
+	 * @param delegate the modified file of the delegate file system
+	 * @param deleted whether the file has been deleted
+	 */
+	protected void invalidate(Path delegate, boolean deleted) {
+		log.trace("invalidating {}", delegate);
+		stamps.put(delegate, clock.incrementAndGet());
+		if(stamps.size() > maxStamps) {
+			// ...rather than keeping a stamp for every file ever modified (or deleted). the epoch 
+			// is raised before the stamps are dropped, so no outdated stamp becomes valid again.
+			log.debug("{} modification stamps exceeded, outdating all", maxStamps);
+			epoch = clock.incrementAndGet();
+			stamps.clear();
+		}
+		contentCache.invalidate(delegate);
+	}
+	
+	/**
+	 * invalidate cached data of all files, e.g. if events have been lost
+	 */
+	protected void invalidateAll() {
+		epoch = clock.incrementAndGet();
+		stamps.clear();
+		contentCache.clear();
 	}
 
 	@Override
@@ -40,7 +211,7 @@ public class WrapFilesystem extends FileSystem {
 	
 	@Override
 	public Path getPath(String first, String... more) {
-		return new WrapPath(this, delegate.getPath(first, more));
+		return wrap(delegate.getPath(first, more));
 	}
 	
 
@@ -49,6 +220,7 @@ public class WrapFilesystem extends FileSystem {
 		if(closeCascade) {
 			delegate.close();
 		}
+		contentCache.clear();
 		this.provider().unregister(this);
 	}
 
@@ -70,7 +242,7 @@ public class WrapFilesystem extends FileSystem {
 	@Override
 	public Iterable<Path> getRootDirectories() {
 		Iterable<Path> itr = StreamSupport.stream(delegate.getRootDirectories().spliterator(), false)
-				.map(it -> new WrapPath(this, it)).collect(Collectors.toList());
+				.map(it -> wrap(it)).collect(Collectors.toList());
 		return itr;
 	}
 
@@ -86,9 +258,12 @@ public class WrapFilesystem extends FileSystem {
 		return delegate.supportedFileAttributeViews();
 	}
 
+	/**
+	 * @return matcher compiled by the delegate file system (see {@link WrapPathMatcher})
+	 */
 	@Override
 	public PathMatcher getPathMatcher(String syntaxAndPattern) {
-		throw new UnsupportedOperationException();
+		return new WrapPathMatcher(this, syntaxAndPattern);
 	}
 
 	@Override
@@ -96,9 +271,27 @@ public class WrapFilesystem extends FileSystem {
         throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * @return watch service of the delegate, translating events to wrap paths and invalidating 
+	 * cached data of modified files (see {@link WrapWatchService})
+	 */
 	@Override
 	public WatchService newWatchService() throws IOException {
-        throw new UnsupportedOperationException();
+		return new WrapWatchService(this, delegate.newWatchService());
+	}
+
+	/**
+	 * walk a directory tree, splitting at sub directories when run as a parallel stream 
+	 * (see {@link WrapTreeSpliterator})
+	 * @param start file or directory of this file system to start with
+	 * @param maxDepth maximum number of directory levels to visit
+	 * @return stream of the start and all files and directories below
+	 */
+	public Stream<WrapPath> walk(Path start, int maxDepth) {
+		if(!(start instanceof WrapPath) || this != start.getFileSystem()) {
+			throw new IllegalArgumentException("path not of this file system " + start);
+		}
+		return StreamSupport.stream(new WrapTreeSpliterator((WrapPath)start, maxDepth), false);
 	}
 
 }
@@ -2,12 +2,16 @@ package li.excessive.fs.wrap;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileStore;
+import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
@@ -16,6 +20,7 @@ import java.nio.file.LinkOption;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
@@ -23,9 +28,10 @@ import java.nio.file.spi.FileSystemProvider;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +44,9 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 
 	private static Logger log = LoggerFactory.getLogger(WrapFilesystemProvider.class);
 	
-    private final Map<URI, WrapFilesystem> filesystems = new HashMap<>();
+	// registered file systems keyed by their delegate. file systems don't override equals, so 
+	// this is an identity lookup, no lock and no allocation on the path of wrap(Path).
+	private final Map<FileSystem, WrapFilesystem> filesystems = new ConcurrentHashMap<>();
     
 	protected URI wrap(URI uri) {
 		return this.getScheme().equals(uri.getScheme()) ? uri : URI.create(this.getScheme() + ":" + uri.toString());
@@ -54,7 +62,10 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 	}
 	
 	protected WrapPath wrap(Path path) {
-		return (path instanceof WrapPath) ? (WrapPath)path : new WrapPath(this.register(path.getFileSystem()), path);
+		if(path instanceof WrapPath) {
+			return (WrapPath)path;
+		}
+		return this.register(path.getFileSystem()).wrap(path);
 	}
 	
 	protected Path unwrap(Path path) {
@@ -77,74 +88,74 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 	
 	/**
 	 * create a filesystem or throw exception if it already exists. the given uri has to point
-	 * to the root directory of the filesystem to be created.
+	 * to the root directory of the filesystem to be created. the options of the env only apply
+	 * to a file system created by this call, so if the delegate is already wrapped (e.g. the
+	 * default file system after {@link Paths#get(URI)}) a non-empty env is rejected rather than
+	 * silently ignored. with an empty env the file system already wrapping the delegate is returned.
 	 * @param rootWrapUri
 	 * @param env
 	 * @return
 	 * @throws IOException
+	 * @throws FileSystemAlreadyExistsException if the delegate is wrapped already and env isn't empty
 	 */
 	@Override
 	public WrapFilesystem newFileSystem(URI rootWrapUri, Map<String, ?> env) throws IOException {
-        WrapFilesystem fs = null;
-        synchronized(filesystems) {
-        	URI rootUri = this.unwrap(rootWrapUri);
-        	
-        	// return existing fs (unless closed)...
-        	if(filesystems.containsKey(rootUri) && filesystems.get(rootUri).isOpen()) {
-        		fs = filesystems.get(rootUri);
-        	} else {
-	        	FileSystem delegate = null;
-	        	Map<String, Object> args = new HashMap<>();
-	        	try {
-	        		delegate = FileSystems.getFileSystem(rootUri);
-	        		args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.FALSE);
-	        	} catch (FileSystemNotFoundException e) {
-	        		delegate = FileSystems.newFileSystem(rootUri, env);
-	        		args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.TRUE);
-	        	}
-	            fs = this.wrap(delegate, args);
-	            filesystems.put(rootUri, fs);
-        	}
-        }
-		return fs;
+		URI rootUri = this.unwrap(rootWrapUri);
+		// pass the env on to the wrap file system so it can pick up its own options...
+		Map<String, Object> args = null != env ? new HashMap<>(env) : new HashMap<>();
+		FileSystem delegate = null;
+		try {
+			delegate = FileSystems.getFileSystem(rootUri);
+			args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.FALSE);
+		} catch (FileSystemNotFoundException e) {
+			try {
+				delegate = FileSystems.newFileSystem(rootUri, env);
+				args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.TRUE);
+			} catch (FileSystemAlreadyExistsException ex) {
+				// ...created concurrently
+				delegate = FileSystems.getFileSystem(rootUri);
+				args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.FALSE);
+			}
+		}
+		// return existing fs (unless closed), it can't take the options of the env though...
+		boolean options = null != env && !env.isEmpty();
+		return filesystems.compute(delegate, (k, fs) -> {
+			if(null != fs && fs.isOpen()) {
+				if(options) {
+					throw new FileSystemAlreadyExistsException(rootWrapUri.toString());
+				}
+				return fs;
+			}
+			return this.wrap(k, args);
+		});
 	}
 	
 	/**
 	 * for a given path delegate, try to find the corresponding wrap file system. 
 	 * if not found, wrap and register the path's file system.
-	 * @param path
+	 * a file system looked up while being closed concurrently is still returned, it stays usable 
+	 * as long as its delegate is open.
+	 * @param delegate
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
 	protected <T extends WrapFilesystem> T register(FileSystem delegate) {
-		WrapFilesystem fs = null;
-		synchronized(filesystems) {
-			Set<WrapFilesystem> l = StreamSupport.stream(delegate.getRootDirectories().spliterator(), false)
-				.map(it -> filesystems.get(it.toUri()))
-				.filter(it -> null != it)
-				.collect(Collectors.toSet());
-			if(l.isEmpty()) {
-	        	Map<String, Object> args = new HashMap<>();
-        		args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.FALSE);
-	            fs = this.wrap(delegate, args);
-	            for(Path root : delegate.getRootDirectories()) {
-		            log.debug("registering filesystem " + root.toUri());
-		            filesystems.put(root.toUri(), fs);
-	            }
-			} else {
-				fs = l.iterator().next();
-			}
+		WrapFilesystem fs = filesystems.get(delegate);
+		if(null == fs) {
+			fs = filesystems.computeIfAbsent(delegate, it -> {
+				log.debug("registering filesystem {}", it);
+				Map<String, Object> args = new HashMap<>();
+				args.put(WrapFilesystem.CLOSE_CASCADE, Boolean.FALSE);
+				return this.wrap(it, args);
+			});
 		}
 		return (T)fs;
 	}
 	
 	protected void unregister(WrapFilesystem fs) {
-		synchronized(filesystems) {
-            for(Path root : fs.delegate.getRootDirectories()) {
-	            log.debug("unregistering filesystem " + root.toUri());
-	            filesystems.remove(root.toUri());
-            }
-		}
+		log.debug("unregistering filesystem {}", fs.delegate);
+		// ...unless another instance wraps the same delegate
+		filesystems.remove(fs.delegate, fs);
 	}
 
 	@Override
@@ -163,16 +174,66 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 	
 	@Override
 	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
-		return Files.newByteChannel(this.unwrap(path), options);
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			this.modified(path);
+		}
+		return Files.newByteChannel(this.unwrap(path), options, attrs);
+	}
+	
+	/**
+	 * file channel of the delegate file system or, if it doesn't provide file channels, a file 
+	 * channel on top of its byte channel (see {@link WrapFileChannel})
+	 */
+	@Override
+	public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			this.modified(path);
+		}
+		Path p = this.unwrap(path);
+		try {
+			return p.getFileSystem().provider().newFileChannel(p, options, attrs);
+		} catch (UnsupportedOperationException e) {
+			log.trace("no file channels provided for {}, using its byte channel", p);
+			return new WrapFileChannel(p, options, attrs);
+		}
+	}
+	
+	/**
+	 * asynchronous file channel of the delegate file system or, if it doesn't provide those 
+	 * (e.g. zipfs), one on top of the file channel (see {@link WrapAsynchronousFileChannel})
+	 */
+	@Override
+	public AsynchronousFileChannel newAsynchronousFileChannel(Path path, Set<? extends OpenOption> options, ExecutorService executor, FileAttribute<?>... attrs) throws IOException {
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			this.modified(path);
+		}
+		Path p = this.unwrap(path);
+		try {
+			return p.getFileSystem().provider().newAsynchronousFileChannel(p, options, executor, attrs);
+		} catch (UnsupportedOperationException e) {
+			log.trace("no asynchronous file channels provided for {}, using its file channel", p);
+			return new WrapAsynchronousFileChannel(this.newFileChannel(path, options, attrs), executor);
+		}
 	}
 
+	/**
+	 * a {@link WrapPathMatcher} filter is pushed down to the delegate directory stream, any other 
+	 * filter is applied to the wrapped entries
+	 */
 	@Override
 	public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) throws IOException {
 		if(! (dir instanceof WrapPath))
 			throw new IllegalArgumentException("invalid path type " + dir.getClass());
 		
+		Path delegateDir = ((WrapPath)dir).getDelegate();
+		WrapPathMatcher matcher = WrapPathMatcher.of(filter, ((WrapPath)dir).getFileSystem());
+		DirectoryStream<Path> delegate = (null != matcher) 
+			? matcher.newDirectoryStream(delegateDir) 
+			: Files.newDirectoryStream(delegateDir);
+		Filter<? super Path> wrapFilter = (null != matcher) ? null : filter;
+		boolean prefetch = ((WrapPath)dir).getFileSystem().isPrefetching();
+		
 		return new DirectoryStream<Path>() {
-			DirectoryStream<Path> delegate = Files.newDirectoryStream(((WrapPath)dir).getDelegate());
 			@Override
 			public void close() throws IOException { delegate.close(); }
 			
@@ -180,10 +241,41 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 			public Iterator<Path> iterator() {
 				return new Iterator<Path>() {
 					Iterator<Path> it = delegate.iterator();
+					Path next = null;
 					@Override
-					public boolean hasNext() { return it.hasNext(); }
+					public boolean hasNext() {
+						while(null == next && it.hasNext()) {
+							// ...wrapped by the directory, i.e. within its file system
+							Path d = it.next();
+							WrapPath p = ((WrapPath)dir).wrap(d);
+							if(prefetch) {
+								try {
+									p.setCachedAttributes(Files.readAttributes(d, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+								} catch (IOException e) {
+									// ...e.g. deleted in the meantime, left to whoever reads them
+									log.trace("failed to prefetch attributes of {}", d, e);
+									p.setCachedAttributes(null);
+								}
+							}
+							try {
+								if(null == wrapFilter || wrapFilter.accept(p)) {
+									next = p;
+								}
+							} catch (IOException e) {
+								throw new DirectoryIteratorException(e);
+							}
+						}
+						return null != next;
+					}
 					@Override
-					public WrapPath next() { return wrap(it.next()); }
+					public Path next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Path p = next;
+						next = null;
+						return p;
+					}
 				};
 			}
 		};
@@ -192,24 +284,36 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 	@Override
 	public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
 		Path p = this.unwrap(dir);
+		this.modified(dir);
 		Files.createDirectory(p, attrs);
 	}
 
 	@Override
 	public void delete(Path path) throws IOException {
+		this.modified(path);
 		Files.delete(this.unwrap(path));
 	}
 
 	@Override
 	public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		this.modified(target);
 		Files.copy(this.unwrap(source), this.unwrap(target), options);
 	}
 
 	@Override
 	public void move(Path source, Path target, CopyOption... options) throws IOException {
+		this.modified(source);
+		this.modified(target);
 		Files.move(this.unwrap(source), this.unwrap(target), options);
 	}
 
+	// drop attributes captured while listing of a file modified through the file system
+	private void modified(Path path) {
+		if(path instanceof WrapPath) {
+			((WrapPath)path).setCachedAttributes(null);
+		}
+	}
+
 	@Override
 	public boolean isSameFile(Path path, Path path2) throws IOException {
 		throw new UnsupportedOperationException();
@@ -237,19 +341,31 @@ public class WrapFilesystemProvider extends FileSystemProvider {
 		return Files.getFileAttributeView(this.unwrap(path), type, options);
 	}
 
+	/**
+	 * basic attributes are answered from the attributes captured while listing the directory
+	 * if possible (see {@link WrapFilesystem#PREFETCH})
+	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+		if(BasicFileAttributes.class == type && path instanceof WrapPath) {
+			BasicFileAttributes attrs = ((WrapPath)path).getCachedAttributes(options);
+			if(null != attrs) {
+				return (A)attrs;
+			}
+		}
 		return Files.readAttributes(this.unwrap(path), type, options);
 	}
 
 	@Override
 	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
-		throw new UnsupportedOperationException();
+		return Files.readAttributes(this.unwrap(path), attributes, options);
 	}
 
 	@Override
 	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
-		throw new UnsupportedOperationException();
+		this.modified(path);
+		Files.setAttribute(this.unwrap(path), attribute, value, options);
 	}
 
 }
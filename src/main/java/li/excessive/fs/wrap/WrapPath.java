@@ -2,16 +2,21 @@ package li.excessive.fs.wrap;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
-import java.lang.reflect.Constructor;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchEvent.Modifier;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.slf4j.Logger;
@@ -27,9 +32,21 @@ public class WrapPath implements Path {
 	
 	protected Path delegate = null;
 	
-	// once accessed, keep soft reference to file content serving as cache...
-	// memory should be gc'd when required
-	protected SoftReference<byte[]> contentCache = null;
+	// hash code of the delegate, computed on first use
+	private int hash = 0;
+	
+	// basic attributes captured while listing the parent directory (see WrapFilesystem.PREFETCH)
+	private volatile Attributes attributes = null;
+	
+	private static final class Attributes {
+		private final BasicFileAttributes attrs;
+		private final long stamp;
+		
+		Attributes(BasicFileAttributes attrs, long stamp) {
+			this.attrs = attrs;
+			this.stamp = stamp;
+		}
+	}
 	
     public WrapPath (WrapFilesystem fs, Path delegate) {
         this.fs = fs;
@@ -37,18 +54,10 @@ public class WrapPath implements Path {
     }
     
 	protected WrapPath wrap(Path path) {
-		WrapPath wrapped = null;
-		if(path instanceof WrapPath) {
-			wrapped = (WrapPath)path;
-		} else {
-			try {
-				Constructor<? extends WrapPath> c = this.getClass().getDeclaredConstructor(WrapFilesystem.class, Path.class);
-				wrapped = c.newInstance(fs, path);
-			} catch (Exception e) {
-				log.error("failed to wrap {} as {}", path, this.getClass(), e);
-			}
+		if(null == path || path instanceof WrapPath) {
+			return (WrapPath)path;
 		}
-		return wrapped;
+		return fs.wrap(path);
 	}
 	
 	protected Path unwrap(Path path) {
@@ -59,16 +68,97 @@ public class WrapPath implements Path {
 		return this.delegate;
 	}
 	
+	/**
+	 * @param options link options the attributes are requested with
+	 * @return basic attributes captured while listing the parent directory, null if there are 
+	 * none, they're outdated (see {@link WrapFilesystem#getStamp(Path)}) or they don't apply 
+	 * (i.e. this is a symbolic link that is to be followed)
+	 */
+	public BasicFileAttributes getCachedAttributes(LinkOption... options) {
+		Attributes a = attributes;
+		if(null == a || a.stamp != fs.getStamp(delegate)) {
+			return null;
+		}
+		// ...captured without following links, the same unless this is a link
+		if(a.attrs.isSymbolicLink() && !Arrays.asList(options).contains(LinkOption.NOFOLLOW_LINKS)) {
+			return null;
+		}
+		return a.attrs;
+	}
+	
+	/**
+	 * @param attrs basic attributes of the delegate (not following links) or null to drop them
+	 */
+	protected void setCachedAttributes(BasicFileAttributes attrs) {
+		attributes = null != attrs ? new Attributes(attrs, fs.getStamp(delegate)) : null;
+	}
+	
+	/**
+	 * @return basic attributes of the delegate, answered from the attributes captured while 
+	 * listing the parent directory if possible
+	 */
+	public BasicFileAttributes readAttributes() throws IOException {
+		BasicFileAttributes attrs = getCachedAttributes();
+		return null != attrs ? attrs : Files.readAttributes(delegate, BasicFileAttributes.class);
+	}
+	
+	/**
+	 * file content as a read-only buffer, without copying it to the heap where possible.
+	 * files of the default file system are memory mapped, leaving the caching to the page cache
+	 * of the os. files of other file systems (e.g. zip files) can't be mapped, these are served
+	 * from the content cache of the file system (see {@link ContentCache}) or, if too large to be
+	 * cached, read into a direct buffer.
+	 * @return the content or null if this is not a regular file
+	 * @throws IOException if the file can't be read or is too large to fit a buffer (2GiB)
+	 */
+	public ByteBuffer getContent() throws IOException {
+		BasicFileAttributes attrs = readAttributes();
+		if(!attrs.isRegularFile()) {
+			return null;
+		}
+		if(attrs.size() > Integer.MAX_VALUE) {
+			throw new IOException("file too large to fit a buffer " + this);
+		}
+		if(isMappable()) {
+			try(FileChannel channel = FileChannel.open(delegate, StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, attrs.size()).asReadOnlyBuffer();
+			}
+		}
+		ByteBuffer b = fs.getContentCache().get(delegate, attrs);
+		if(null == b) {
+			log.trace("file content too large to be cached {}", this);
+			b = ByteBuffer.allocateDirect((int)attrs.size());
+			try(SeekableByteChannel channel = Files.newByteChannel(delegate)) {
+				while(b.hasRemaining() && channel.read(b) >= 0);
+			}
+			b.flip();
+			b = b.asReadOnlyBuffer();
+		}
+		return b;
+	}
+	
+	/**
+	 * @return whether the content of this file can be memory mapped (see {@link #getContent()})
+	 */
+	public boolean isMappable() {
+		return FileSystems.getDefault() == delegate.getFileSystem();
+	}
+	
+	/**
+	 * file content, served from the content cache of the file system (see {@link ContentCache})
+	 * unless the file is too large to be cached
+	 * @return the content or null if this is not a regular file
+	 */
 	public byte[] getBytes() throws IOException {
 		byte[] b = null;
-		if(Files.isRegularFile(delegate)) {
-			if(null == contentCache || null == contentCache.get()) {
-				log.trace("caching file content {}", this);
-				contentCache = new SoftReference<byte[]>(Files.readAllBytes(delegate));
-			} else {
-				log.trace("file content retrieved from cache {}", this);
-			}
-			b = contentCache.get();
+		BasicFileAttributes attrs = readAttributes();
+		ByteBuffer cached = fs.getContentCache().get(delegate, attrs);
+		if(null != cached) {
+			b = new byte[cached.remaining()];
+			cached.get(b);
+		} else if(attrs.isRegularFile()) {
+			log.trace("file content too large to be cached {}", this);
+			b = Files.readAllBytes(delegate);
 		}
 		return b;
 	}
@@ -115,7 +205,7 @@ public class WrapPath implements Path {
 
 	@Override
 	public boolean startsWith(Path other) {
-		return delegate.startsWith(other);
+		return delegate.startsWith(unwrap(other));
 	}
 
 	@Override
@@ -125,7 +215,7 @@ public class WrapPath implements Path {
 
 	@Override
 	public boolean endsWith(Path other) {
-		return delegate.endsWith(other);
+		return delegate.endsWith(unwrap(other));
 	}
 
 	@Override
@@ -186,12 +276,15 @@ public class WrapPath implements Path {
 
 	@Override
 	public WatchKey register(WatchService watcher, Kind<?>[] events, Modifier... modifiers) throws IOException {
+		if(watcher instanceof WrapWatchService) {
+			return ((WrapWatchService)watcher).register(this, events, modifiers);
+		}
 		return delegate.register(watcher, events, modifiers);
 	}
 
 	@Override
 	public WatchKey register(WatchService watcher, Kind<?>... events) throws IOException {
-		return delegate.register(watcher, events);
+		return register(watcher, events, new Modifier[0]);
 	}
 
 	@Override
@@ -214,6 +307,30 @@ public class WrapPath implements Path {
 		return delegate.compareTo(unwrap(other));
 	}
 	
+	/**
+	 * paths are equal if they belong to the same file system and their delegates are equal
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof WrapPath)) {
+			return false;
+		}
+		WrapPath other = (WrapPath)obj;
+		return fs == other.fs && delegate.equals(other.delegate);
+	}
+	
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if(0 == h) {
+			h = hash = delegate.hashCode();
+		}
+		return h;
+	}
+	
 	@Override
 	public String toString() {
 		return this.toUri().toString();
@@ -0,0 +1,21 @@
+package li.excessive.fs.wrap;
+
+import java.nio.file.Path;
+
+/**
+ * creates the paths of a wrap file system. subclasses of {@link WrapFilesystem} register their
+ * factory once through the constructor (typically a constructor reference, e.g.
+ * <code>MetaDataPath::new</code>), so wrapping a delegate path is a plain call rather than a
+ * reflective constructor lookup.
+ */
+@FunctionalInterface
+public interface WrapPathFactory {
+
+	/**
+	 * @param fs the file system the path belongs to
+	 * @param delegate path of the delegate file system
+	 * @return the wrap path of the delegate
+	 */
+	WrapPath newPath(WrapFilesystem fs, Path delegate);
+
+}
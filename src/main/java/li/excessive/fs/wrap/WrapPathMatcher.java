@@ -0,0 +1,82 @@
+package li.excessive.fs.wrap;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+/**
+ * path matcher of a wrap file system, compiled once by the delegate file system.
+ * supports whatever syntax the delegate supports (at least 'glob' and 'regex').
+ * 
+ * the matcher also is a directory stream filter, matching entries by file name just like
+ * {@link Files#newDirectoryStream(Path, String)} does. passed to 
+ * {@link Files#newDirectoryStream(Path, DirectoryStream.Filter)}, the filter is pushed down to 
+ * the delegate directory stream, so non-matching entries are never wrapped. glob patterns are 
+ * passed on to the delegate as they are, so it may match them natively.
+ */
+public class WrapPathMatcher implements PathMatcher, DirectoryStream.Filter<Path> {
+
+	private static final String GLOB = "glob:";
+	
+	private final WrapFilesystem fs;
+	
+	private final String syntaxAndPattern;
+	
+	private final PathMatcher delegate;
+	
+	public WrapPathMatcher(WrapFilesystem fs, String syntaxAndPattern) {
+		this.fs = fs;
+		this.syntaxAndPattern = syntaxAndPattern;
+		this.delegate = fs.delegate.getPathMatcher(syntaxAndPattern);
+	}
+	
+	/**
+	 * @param filter filter passed to the provider
+	 * @param fs file system of the directory
+	 * @return the filter if it is a matcher of the given file system (i.e. can be pushed down), 
+	 * otherwise null (i.e. the filter is to be applied to the wrapped entries)
+	 */
+	protected static WrapPathMatcher of(DirectoryStream.Filter<?> filter, WrapFilesystem fs) {
+		if(filter instanceof WrapPathMatcher && fs == ((WrapPathMatcher)filter).fs) {
+			return (WrapPathMatcher)filter;
+		}
+		return null;
+	}
+	
+	private boolean isGlob() {
+		return syntaxAndPattern.regionMatches(true, 0, GLOB, 0, GLOB.length());
+	}
+	
+	@Override
+	public boolean matches(Path path) {
+		return delegate.matches((path instanceof WrapPath) ? ((WrapPath)path).getDelegate() : path);
+	}
+	
+	@Override
+	public boolean accept(Path entry) {
+		Path name = (entry instanceof WrapPath) ? ((WrapPath)entry).getDelegate().getFileName() : entry.getFileName();
+		return null != name && delegate.matches(name);
+	}
+	
+	/**
+	 * open a directory stream of the delegate file system, filtered by this matcher
+	 * @param dir delegate directory
+	 */
+	protected DirectoryStream<Path> newDirectoryStream(Path dir) throws IOException {
+		if(isGlob()) {
+			return Files.newDirectoryStream(dir, syntaxAndPattern.substring(GLOB.length()));
+		}
+		return Files.newDirectoryStream(dir, entry -> {
+			Path name = entry.getFileName();
+			return null != name && delegate.matches(name);
+		});
+	}
+	
+	@Override
+	public String toString() {
+		return syntaxAndPattern;
+	}
+
+}
@@ -0,0 +1,185 @@
+package li.excessive.fs.wrap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * walks a directory tree like {@link Files#walk(Path, int, java.nio.file.FileVisitOption...)}
+ * (not following links), but splits at sub directory boundaries, so a parallel stream walks
+ * disjoint sub trees concurrently (see {@link WrapFilesystem#walk(Path, int)}). the start is
+ * reported first, the order of the other entries is unspecified. run the stream
+ * on a fork join pool of its own to control the number of concurrent listings, e.g.
+ * <pre>
+ * pool.submit(() -&gt; fs.walk(root, Integer.MAX_VALUE).parallel().forEach(...)).get();
+ * </pre>
+ *
+ * directories are listed one at a time, memory is bounded by the depth of the tree times the
+ * number of entries of a directory. listing with {@link WrapFilesystem#PREFETCH} enabled saves
+ * stating the entries again to tell directories from files.
+ */
+public class WrapTreeSpliterator implements Spliterator<WrapPath> {
+
+	private static Logger log = LoggerFactory.getLogger(WrapTreeSpliterator.class);
+
+	// a directory still to be listed
+	private static final class Directory {
+		private final WrapPath path;
+		private final int depth;
+
+		Directory(WrapPath path, int depth) {
+			this.path = path;
+			this.depth = depth;
+		}
+	}
+
+	private final int maxDepth;
+
+	// the start of the walk, reported first
+	private WrapPath start;
+	
+	// whether the start has been listed yet (if it is a directory)
+	private boolean expanded = false;
+
+	// directories still to be listed, the deepest last. splits take the shallowest ones.
+	private final Deque<Directory> pending = new ArrayDeque<>();
+
+	// remaining entries of the directory listed last
+	private List<WrapPath> entries = new ArrayList<>();
+	private int index = 0;
+	private int depth = 0;
+
+	/**
+	 * @param start file or directory to start with
+	 * @param maxDepth maximum number of directory levels to visit, 0 to visit the start only
+	 */
+	public WrapTreeSpliterator(WrapPath start, int maxDepth) {
+		if(maxDepth < 0) {
+			throw new IllegalArgumentException("max depth must not be negative");
+		}
+		this.start = start;
+		this.maxDepth = maxDepth;
+	}
+
+	private WrapTreeSpliterator(int maxDepth) {
+		this.maxDepth = maxDepth;
+		this.expanded = true;
+	}
+	
+	/**
+	 * list the start if it is a directory, so its entries can be split off before the start
+	 * is reported
+	 */
+	private void expand() {
+		if(!expanded) {
+			expanded = true;
+			try {
+				// ...fails if the start doesn't exist, just like Files.walk
+				if(maxDepth > 0 && Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory()) {
+					list(new Directory(start, 0));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super WrapPath> action) {
+		WrapPath p = null;
+		if(null != start) {
+			expand();
+			p = start;
+			start = null;
+		} else {
+			while(index >= entries.size()) {
+				if(pending.isEmpty()) {
+					return false;
+				}
+				list(pending.pollLast());
+			}
+			p = entries.get(index++);
+			if(depth < maxDepth && isDirectory(p)) {
+				pending.addLast(new Directory(p, depth));
+			}
+		}
+		action.accept(p);
+		return true;
+	}
+
+	/**
+	 * split off the shallowest half of the pending directories or, if there is only one
+	 * directory left, half of the remaining entries. the start stays with this spliterator.
+	 */
+	@Override
+	public Spliterator<WrapPath> trySplit() {
+		expand();
+		WrapTreeSpliterator split = new WrapTreeSpliterator(maxDepth);
+		if(pending.size() > 1) {
+			for(int n = pending.size() / 2; n > 0; n--) {
+				split.pending.addLast(pending.pollFirst());
+			}
+			return split;
+		}
+		int remaining = entries.size() - index;
+		if(remaining > 1) {
+			int mid = index + remaining / 2;
+			split.entries = new ArrayList<>(entries.subList(index, mid));
+			split.depth = depth;
+			index = mid;
+			return split;
+		}
+		return null;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return DISTINCT | NONNULL;
+	}
+
+	private void list(Directory dir) {
+		List<WrapPath> l = new ArrayList<>();
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir.path)) {
+			Iterator<Path> it = ds.iterator();
+			while(it.hasNext()) {
+				l.add((WrapPath)it.next());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.trace("listed {} entries of {}", l.size(), dir.path);
+		entries = l;
+		index = 0;
+		depth = dir.depth + 1;
+	}
+
+	private static boolean isDirectory(WrapPath p) {
+		try {
+			return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+		} catch (IOException e) {
+			// ...e.g. deleted in the meantime, visited as a file
+			log.debug("failed to read attributes of {}", p, e);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package li.excessive.fs.wrap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * watch service of a wrap file system, wrapping the watch service of the delegate. 
+ * events are translated to refer to wrap paths. as events are retrieved, the caches of the 
+ * affected files are invalidated (see {@link WrapFilesystem#invalidate(Path, boolean)}).
+ */
+public class WrapWatchService implements WatchService {
+
+	private static Logger log = LoggerFactory.getLogger(WrapWatchService.class);
+	
+	private final WrapFilesystem fs;
+	
+	private final WatchService delegate;
+	
+	// keyed by delegate key
+	private final Map<WatchKey, Key> keys = new ConcurrentHashMap<>();
+	
+	public WrapWatchService(WrapFilesystem fs, WatchService delegate) {
+		this.fs = fs;
+		this.delegate = delegate;
+	}
+	
+	/**
+	 * register a directory (see {@link WrapPath#register(WatchService, WatchEvent.Kind[], WatchEvent.Modifier...)})
+	 */
+	protected WatchKey register(WrapPath dir, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) throws IOException {
+		WatchKey k = dir.getDelegate().register(delegate, events, modifiers);
+		return keys.computeIfAbsent(k, it -> new Key(it, dir));
+	}
+	
+	private WatchKey wrap(WatchKey k) {
+		if(null == k) {
+			return null;
+		}
+		Key key = keys.get(k);
+		if(null == key) {
+			// ...registered with the delegate watch service directly
+			key = keys.computeIfAbsent(k, it -> new Key(it, fs.provider().wrap((Path)it.watchable())));
+		}
+		return key;
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+		keys.clear();
+	}
+
+	@Override
+	public WatchKey poll() {
+		return wrap(delegate.poll());
+	}
+
+	@Override
+	public WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return wrap(delegate.poll(timeout, unit));
+	}
+
+	@Override
+	public WatchKey take() throws InterruptedException {
+		return wrap(delegate.take());
+	}
+	
+	private class Key implements WatchKey {
+		private final WatchKey delegate;
+		private final WrapPath dir;
+		
+		Key(WatchKey delegate, WrapPath dir) {
+			this.delegate = delegate;
+			this.dir = dir;
+		}
+		
+		@Override
+		public boolean isValid() {
+			return delegate.isValid();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public List<WatchEvent<?>> pollEvents() {
+			List<WatchEvent<?>> events = new ArrayList<>();
+			for(WatchEvent<?> e : delegate.pollEvents()) {
+				if(StandardWatchEventKinds.OVERFLOW == e.kind()) {
+					log.debug("events lost for {}, invalidating all caches", dir);
+					fs.invalidateAll();
+					events.add(e);
+				} else if(e.context() instanceof Path) {
+					Path file = dir.getDelegate().resolve((Path)e.context());
+					fs.invalidate(file, StandardWatchEventKinds.ENTRY_DELETE == e.kind());
+					events.add(new Event((WatchEvent<Path>)e, dir.wrap((Path)e.context())));
+				} else {
+					events.add(e);
+				}
+			}
+			return events;
+		}
+
+		@Override
+		public boolean reset() {
+			return delegate.reset();
+		}
+
+		@Override
+		public void cancel() {
+			delegate.cancel();
+			keys.remove(delegate);
+		}
+
+		@Override
+		public Watchable watchable() {
+			return dir;
+		}
+	}
+	
+	private static class Event implements WatchEvent<Path> {
+		private final WatchEvent<Path> delegate;
+		private final Path context;
+		
+		Event(WatchEvent<Path> delegate, Path context) {
+			this.delegate = delegate;
+			this.context = context;
+		}
+		@Override
+		public Kind<Path> kind() {
+			return delegate.kind();
+		}
+		@Override
+		public int count() {
+			return delegate.count();
+		}
+		@Override
+		public Path context() {
+			return context;
+		}
+		@Override
+		public String toString() {
+			return kind() + " " + context;
+		}
+	}
+
+}
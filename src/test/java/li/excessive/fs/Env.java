@@ -1,9 +1,15 @@
 package li.excessive.fs;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.rules.TestWatcher;
@@ -44,4 +50,32 @@ public class Env extends TestWatcher {
 		return (null != s ? workspace.resolve(s) : workspace);
 	}
 
+	
+	/**
+	 * create a zip file in the output directory holding the given resources (by file name)
+	 * @return uri of the zip file system, e.g. jar:file:///.../IXUS40.zip
+	 */
+	public URI zip(String name, String... resources) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		for(String r : resources) {
+			entries.put(this.resource(r).getFileName().toString(), Files.readAllBytes(this.resource(r)));
+		}
+		return zip(name, entries);
+	}
+	/**
+	 * create a zip file in the output directory holding the given entries
+	 * @return uri of the zip file system
+	 */
+	public URI zip(String name, Map<String, byte[]> entries) throws IOException {
+		URI uri = URI.create("jar:" + this.output(name).toUri());
+		Map<String, String> env = new HashMap<>();
+		env.put("create", "true");
+		try(FileSystem zipFs = FileSystems.newFileSystem(uri, env)) {
+			for(Map.Entry<String, byte[]> e : entries.entrySet()) {
+				Files.write(zipFs.getPath(e.getKey()), e.getValue());
+			}
+		}
+		return uri;
+	}
+
 }
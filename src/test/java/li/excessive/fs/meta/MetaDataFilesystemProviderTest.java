@@ -1,19 +1,50 @@
 package li.excessive.fs.meta;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.tika.metadata.Metadata;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -68,6 +99,19 @@ public class MetaDataFilesystemProviderTest {
 		log.info("meta data\n" + v);
 	}
 	
+	@Test
+	public void testDigests() throws URISyntaxException, IOException {
+		URI dscUri = new URI("meta:" + env.resource("IXUS40/IMG_3197.JPG"));
+		Path p = Paths.get(dscUri);
+		MetaDataView v = Files.getFileAttributeView(p, MetaDataView.class);
+		Map<Digest, String> d = v.getDigests(Digest.MD5, Digest.SHA256, Digest.CRC32);
+		assertEquals(3, d.size());
+		assertEquals("6a4363a17fb60dbed894f107a460bfd5", d.get(Digest.MD5));
+		assertEquals("30348e747621a5b1aa71598fb43c71d796c011166a7ecc0bff85affa30d597a4", d.get(Digest.SHA256));
+		assertEquals("87f88b20", d.get(Digest.CRC32));
+		assertEquals("79e7650c497eb5ab556ecb4ca6dfa920806a1b0b", v.getSha1());
+	}
+	
 	@Test
 	public void testReadableMetaDataAttributeViewJpg2() throws URISyntaxException, IOException {
 		URI dscUri = new URI("meta:" + env.resource("EOS70/IMG_1257.JPG"));
@@ -97,6 +141,498 @@ public class MetaDataFilesystemProviderTest {
 		assertEquals("2011-08-14T09:35:52", v.getDateTimeCreated().toString());
 	}
 	
-
+	@Test
+	public void testParseLimit() throws URISyntaxException, IOException {
+		// read meta data through a zip file system with a parse limit well below the file size...
+		URI zipUri = env.zip("IXUS40.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.PARSE_LIMIT, 64 * 1024);
+		try(FileSystem metaFs = FileSystems.newFileSystem(URI.create("meta:" + zipUri), metaEnv)) {
+			Path p = metaFs.getPath("IMG_3197.JPG");
+			MetaDataView v = Files.getFileAttributeView(p, MetaDataView.class);
+			assertNotNull(v);
+			assertEquals("image/jpeg", v.getMimeType());
+			
+			// ...should yield the same results as parsing the whole file
+			MetaDataView full = Files.getFileAttributeView(Paths.get(new URI("meta:" + env.resource("IXUS40/IMG_3197.JPG"))), MetaDataView.class);
+			assertNotNull(v.getDateTimeCreated());
+			assertEquals(full.getDateTimeCreated(), v.getDateTimeCreated());
+			assertEquals(full.read("Model"), v.read("Model"));
+		}		
+		// ...the default file system is wrapped already (see above), so its limit can't be changed
+		Path root = Paths.get(new URI("meta:" + env.resource("").getRoot().toUri()));
+		try {
+			FileSystems.newFileSystem(root.toUri(), metaEnv);
+			fail();
+		} catch (FileSystemAlreadyExistsException e) {
+			assertEquals(MetaDataFilesystem.DEFAULT_PARSE_LIMIT, ((MetaDataFilesystem)root.getFileSystem()).getParseLimit());
+		}
+	}
+	
+	@Test
+	public void testStore() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("IXUS40.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.STORE_DIR, env.output("store"));
+		try(MetaDataFilesystem metaFs = (MetaDataFilesystem)FileSystems.newFileSystem(URI.create("meta:" + zipUri), metaEnv)) {
+			MetaDataPath p = (MetaDataPath)metaFs.getPath("IMG_3197.JPG");
+			MetaDataView v = Files.getFileAttributeView(p, MetaDataView.class);
+			assertEquals("6a4363a17fb60dbed894f107a460bfd5", v.getMd5());
+			assertFalse(v.list().isEmpty());
+			
+			// meta data and digest should have been persisted...
+			BasicFileAttributes attrs = Files.readAttributes(p.getDelegate(), BasicFileAttributes.class);
+			MetaDataStore.Entry entry = metaFs.getStore().load(p.getDelegate(), attrs);
+			assertNotNull(entry);
+			assertEquals("6a4363a17fb60dbed894f107a460bfd5", entry.digests.get(Digest.MD5));
+			assertEquals(v.getMimeType(), entry.snapshot.get(Metadata.CONTENT_TYPE));
+			
+			// ...and should be picked up by new path instances
+			MetaDataView v2 = Files.getFileAttributeView(metaFs.getPath("IMG_3197.JPG"), MetaDataView.class);
+			assertEquals(v.list(), v2.list());
+			assertEquals(v.getDateTimeCreated(), v2.getDateTimeCreated());
+			
+			// modified files invalidate the entry
+			Files.setLastModifiedTime(p.getDelegate(), FileTime.fromMillis(attrs.lastModifiedTime().toMillis() - 60000));
+			attrs = Files.readAttributes(p.getDelegate(), BasicFileAttributes.class);
+			assertNull(metaFs.getStore().load(p.getDelegate(), attrs));
+		}
+	}
+	
+	@Test
+	public void testConcurrentDigestsAndSnapshot() throws Exception {
+		URI zipUri = env.zip("IXUS40.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.STORE_DIR, env.output("store"));
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try(MetaDataFilesystem metaFs = (MetaDataFilesystem)FileSystems.newFileSystem(URI.create("meta:" + zipUri), metaEnv)) {
+			MetaDataPath p = (MetaDataPath)metaFs.getPath("IMG_3197.JPG");
+			// ...a digest and the snapshot of the same (not mappable) view requested at once
+			for(int i = 0; i < 50; i++) {
+				MetaDataView v = new MetaDataView(p);
+				Future<?> list = pool.submit(() -> v.list());
+				Future<String> md5 = pool.submit(() -> v.getMd5());
+				assertEquals("6a4363a17fb60dbed894f107a460bfd5", md5.get(30, TimeUnit.SECONDS));
+				list.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testScan() throws URISyntaxException, IOException {
+		Path root = Paths.get(new URI("meta:" + env.resource("IXUS40")));
+		MetaDataFilesystem fs = (MetaDataFilesystem)root.getFileSystem();
+		try(Stream<MetaDataScanner.Result> results = fs.scan(root, 4)) {
+			List<MetaDataScanner.Result> l = results.collect(Collectors.toList());
+			assertEquals(10, l.size());
+			for(MetaDataScanner.Result r : l) {
+				assertFalse(r.toString(), r.isError());
+				assertNotNull(r.getView());
+			}
+		}
+	}
+	
+	@Test
+	public void testFulltext() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("docs.zip", Collections.singletonMap("doc.html", 
+				"<html><head><title>holidays</title></head><body><p>lots of text</p></body></html>".getBytes("UTF-8")));
+		// meta data only (default)...
+		try(FileSystem metaFs = FileSystems.newFileSystem(URI.create("meta:" + zipUri), new HashMap<String, Object>())) {
+			MetaDataView v = Files.getFileAttributeView(metaFs.getPath("doc.html"), MetaDataView.class);
+			assertNotNull(v);
+			assertEquals("holidays", v.read("title").get(0));
+			assertNull(v.getText());
+		}
+		// ...and with full text extraction
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.FULLTEXT, Boolean.TRUE);
+		try(FileSystem metaFs = FileSystems.newFileSystem(URI.create("meta:" + zipUri), metaEnv)) {
+			MetaDataView v = Files.getFileAttributeView(metaFs.getPath("doc.html"), MetaDataView.class);
+			assertNotNull(v);
+			assertEquals("holidays", v.read("title").get(0));
+			assertTrue(v.getText().contains("lots of text"));
+		}
+	}
+	
+	@Test
+	public void testExifHeader() throws URISyntaxException, IOException {
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(env.resource("IXUS40"), "*.JPG")) {
+			for(Path f : ds) {
+				// date read straight from the header...
+				MetaDataView v = Files.getFileAttributeView(Paths.get(new URI("meta:" + f)), MetaDataView.class);
+				LocalDateTime ldt = v.getDateTimeCreated();
+				assertNotNull(ldt);
+				// ...should match the one parsed by tika
+				assertEquals(ExifHeader.parseDateTime(v.read("Date/Time Original").get(0), v.read("Sub-Sec Time").get(0)), ldt);
+				assertEquals(v.read("Make").get(0), v.getExifHeader().getMake());
+				assertEquals(v.read("Model").get(0), v.getExifHeader().getModel());
+				assertTrue(v.getExifHeader().getOrientation() > 0);
+			}
+		}
+	}
+	
+	@Test
+	public void testExifHeaderCorrupt() throws IOException {
+		// jpeg with an exif segment whose IFD0 holds a make of a huge, a model of a negative and 
+		// an orientation of a valid length
+		ByteBuffer b = ByteBuffer.allocate(128);
+		b.put(new byte[] { (byte)0xff, (byte)0xd8, (byte)0xff, (byte)0xe1, 0, 70, 'E', 'x', 'i', 'f', 0, 0 });
+		b.put(new byte[] { 'M', 'M', 0, 42, 0, 0, 0, 8 });
+		b.putShort((short)3);
+		b.putShort((short)0x010f).putShort((short)2).putInt(Integer.MAX_VALUE).putInt(8);
+		b.putShort((short)0x0110).putShort((short)2).putInt(-1).putInt(8);
+		b.putShort((short)0x0112).putShort((short)3).putInt(1).putShort((short)6).putShort((short)0);
+		b.putInt(0);
+		b.flip();
+		ExifHeader h = ExifHeader.read(b);
+		assertNotNull(h);
+		assertNull(h.getMake());
+		assertNull(h.getModel());
+		// ...valid tags are read nonetheless
+		assertEquals(6, h.getOrientation());
+		
+		// a truncated exif segment
+		ByteBuffer header = ExifHeader.readHeader(env.resource("IXUS40/IMG_3197.JPG"));
+		for(int limit : new int[] { 4, 20, 100, 300, 1000 }) {
+			ByteBuffer truncated = header.duplicate();
+			truncated.limit(limit);
+			assertNotNull(ExifHeader.read(truncated));
+		}
+	}
+	
+	@Test
+	public void testTiers() throws URISyntaxException, IOException {
+		MetaDataView v = Files.getFileAttributeView(Paths.get(new URI("meta:" + env.resource("IXUS40/IMG_3199.JPG"))), MetaDataView.class);
+		assertEquals(MetaDataView.Tier.NONE, v.getTier());
+		assertEquals(581822, v.getSize());
+		assertEquals(MetaDataView.Tier.BASIC, v.getTier());
+		// mime type and date of a jpeg are available without parsing...
+		v.load(MetaDataView.Field.MIME_TYPE, MetaDataView.Field.DATE_TIME_CREATED);
+		assertEquals(MetaDataView.Tier.DETECT, v.getTier());
+		assertEquals("image/jpeg", v.getMimeType());
+		LocalDateTime ldt = v.getDateTimeCreated();
+		assertNotNull(ldt);
+		// ...everything else requires a full parse
+		assertFalse(v.list().isEmpty());
+		assertEquals(MetaDataView.Tier.PARSE, v.getTier());
+		assertEquals("image/jpeg", v.getMimeType());
+		assertEquals(ldt, v.getDateTimeCreated());
+		
+		v = Files.getFileAttributeView(Paths.get(new URI("meta:" + env.resource("IXUS40/MVI_3198.AVI"))), MetaDataView.class);
+		assertEquals("video/x-msvideo", v.getMimeType());
+		assertEquals(MetaDataView.Tier.DETECT, v.getTier());
+	}
+	
+	@Test
+	public void testReadAttributes() throws URISyntaxException, IOException {
+		Path p = Paths.get(new URI("meta:" + env.resource("IXUS40/IMG_3197.JPG")));
+		Map<String, Object> attrs = Files.readAttributes(p, "meta:size,mimeType,md5,sha1,Model");
+		assertEquals(5, attrs.size());
+		assertEquals(454150L, attrs.get("size"));
+		assertEquals("image/jpeg", attrs.get("mimeType"));
+		assertEquals("6a4363a17fb60dbed894f107a460bfd5", attrs.get("md5"));
+		assertEquals("79e7650c497eb5ab556ecb4ca6dfa920806a1b0b", attrs.get("sha1"));
+		assertNotNull(attrs.get("Model"));
+		assertEquals("image/jpeg", Files.getAttribute(p, "meta:mimeType"));
+		
+		attrs = Files.readAttributes(p, "meta:*");
+		assertTrue(attrs.containsKey("lastModifiedTime"));
+		assertTrue(attrs.containsKey("dateTimeCreated"));
+		assertTrue(attrs.containsKey("Content-Type"));
+		
+		// plain views are passed on to the delegate
+		attrs = Files.readAttributes(p, "basic:size,isRegularFile");
+		assertEquals(Boolean.TRUE, attrs.get("isRegularFile"));
+		
+		// user defined attribute view style access
+		MetaDataView v = Files.getFileAttributeView(p, MetaDataView.class);
+		ByteBuffer b = ByteBuffer.allocate(v.size("Model"));
+		v.read("Model", b);
+		assertEquals(v.read("Model").get(0), new String(b.array(), "UTF-8"));
+	}
+	
+	@Test
+	public void testSnapshotOffHeap() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("IXUS40.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.SNAPSHOT_OFFHEAP, Boolean.TRUE);
+		try(FileSystem metaFs = FileSystems.newFileSystem(URI.create("meta:" + zipUri), metaEnv)) {
+			MetaDataView v = Files.getFileAttributeView(metaFs.getPath("IMG_3197.JPG"), MetaDataView.class);
+			MetaDataView heap = Files.getFileAttributeView(Paths.get(new URI("meta:" + env.resource("IXUS40/IMG_3197.JPG"))), MetaDataView.class);
+			List<String> names = v.list();
+			assertTrue(v.getSnapshot().isOffHeap());
+			assertFalse(heap.getSnapshot().isOffHeap());
+			assertEquals(heap.list(), names);
+			// keys are listed in order...
+			List<String> sorted = new ArrayList<>(names);
+			Collections.sort(sorted);
+			assertEquals(sorted, names);
+			// ...and read back from the snapshot
+			for(String n : names) {
+				if(!n.startsWith("File ")) { // ...name and date of tika's temp file
+					assertEquals(heap.read(n), v.read(n));
+				}
+			}
+			assertEquals(heap.getDateTimeCreated(), v.getSnapshot().getDateTimeCreated());
+			assertEquals(454150, v.getSnapshot().getSize());
+		}
+	}
+	
+	@Test
+	public void testDuplicates() throws URISyntaxException, IOException {
+		Map<String, byte[]> entries = new HashMap<>();
+		entries.put("copy.jpg", Files.readAllBytes(env.resource("IXUS40/IMG_3197.JPG")));
+		entries.put("MVI_3198.THM", Files.readAllBytes(env.resource("IXUS40/MVI_3198.THM")));
+		// same size, different content
+		byte[] b = Files.readAllBytes(env.resource("IXUS40/IMG_3197.JPG"));
+		b[b.length / 3] ^= 1;
+		entries.put("modified.jpg", b);
+		URI zipUri = env.zip("dups.zip", entries);
+		try(FileSystem metaFs = FileSystems.newFileSystem(URI.create("meta:" + zipUri), new HashMap<>())) {
+			Path dir = Paths.get(new URI("meta:" + env.resource("IXUS40")));
+			List<List<String>> groups = new DuplicateFinder().find(dir, metaFs.getPath("/"))
+				.map(g -> g.stream().map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList()))
+				.sorted((a, c) -> a.get(0).compareTo(c.get(0)))
+				.collect(Collectors.toList());
+			log.debug("duplicates: {}", groups);
+			assertEquals(2, groups.size());
+			assertEquals(Arrays.asList("IMG_3197.JPG", "copy.jpg"), groups.get(0));
+			assertEquals(Arrays.asList("MVI_3198.THM", "MVI_3198.THM"), groups.get(1));
+		}
+	}
+	
+	@Test
+	public void testVirtualDirectories() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("index.zip", "IXUS40/IMG_3197.JPG", "IXUS40/IMG_3199.JPG");
+		try(MetaDataFilesystem metaFs = (MetaDataFilesystem)FileSystems.newFileSystem(URI.create("meta:" + zipUri), new HashMap<>())) {
+			Path root = metaFs.getPath("/");
+			assertFalse(Files.exists(metaFs.getPath("/.by-date/2014")));
+			assertEquals(2, metaFs.index(root));
+			// ...unmodified files are not indexed again
+			assertEquals(0, metaFs.index(root));
+			
+			LocalDateTime created = Files.getFileAttributeView(metaFs.getPath("IMG_3197.JPG"), MetaDataView.class).getDateTimeCreated();
+			Path day = metaFs.getPath(MetaDataIndex.BY_DATE, String.format("%04d", created.getYear()), 
+					String.format("%02d", created.getMonthValue()), String.format("%02d", created.getDayOfMonth())).toAbsolutePath();
+			assertTrue(Files.isDirectory(day));
+			try(Stream<Path> s = Files.list(day)) {
+				List<String> names = s.map(p -> p.getFileName().toString()).collect(Collectors.toList());
+				assertTrue(names.contains("IMG_3197.JPG"));
+			}
+			try(Stream<Path> s = Files.list(metaFs.getPath("/.by-type/image/jpeg"))) {
+				assertEquals(2, s.filter(Files::isRegularFile).count());
+			}
+			try(Stream<Path> s = Files.list(metaFs.getPath("/.by-camera"))) {
+				List<String> cameras = s.map(p -> p.getFileName().toString()).collect(Collectors.toList());
+				log.debug("cameras: {}", cameras);
+				assertEquals(1, cameras.size());
+			}
+			// ...walking a virtual tree visits the actual files (listed like resolved links) 
+			// and virtual directories only
+			Path byDate = metaFs.getPath("/" + MetaDataIndex.BY_DATE);
+			try(Stream<Path> s = Files.walk(byDate)) {
+				List<Path> files = new ArrayList<>();
+				s.forEach(p -> {
+					if(Files.isDirectory(p)) {
+						assertTrue(p.startsWith(byDate));
+					} else {
+						assertFalse(p.startsWith(byDate));
+						assertEquals(root, p.getParent());
+						files.add(p);
+					}
+				});
+				assertEquals(2, files.size());
+				assertTrue(files.contains(metaFs.getPath("/IMG_3197.JPG")));
+			}
+			// ...virtual directories are read-only
+			try {
+				Files.createDirectory(metaFs.getPath("/.by-camera/foo"));
+				assertTrue(false);
+			} catch (AccessDeniedException e) {
+				// expected
+			}
+			// ...and updated when files are deleted
+			Files.delete(metaFs.getPath("/IMG_3197.JPG"));
+			Files.delete(metaFs.getPath("/IMG_3199.JPG"));
+			assertEquals(0, metaFs.getIndex().size());
+			assertFalse(Files.exists(metaFs.getPath("/.by-type/image")));
+			assertTrue(Files.exists(metaFs.getPath("/.by-type")));
+		}
+	}
+	
+	@Test
+	public void testXattr() throws URISyntaxException, IOException {
+		Path file = env.output("xattr/IMG_3197.JPG");
+		Files.createDirectories(file.getParent());
+		Files.copy(env.resource("IXUS40/IMG_3197.JPG"), file, StandardCopyOption.REPLACE_EXISTING);
+		Assume.assumeTrue(Files.getFileStore(file).supportsFileAttributeView("user"));
+		
+		MetaDataFilesystemProvider provider = (MetaDataFilesystemProvider)Paths.get(new URI("meta:" + file.toUri())).getFileSystem().provider();
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.XATTR, "true");
+		MetaDataFilesystem metaFs = new MetaDataFilesystem(provider, file.getFileSystem(), metaEnv);
+		
+		MetaDataView v = Files.getFileAttributeView(metaFs.getPath(file.toString()), MetaDataView.class);
+		assertEquals("79e7650c497eb5ab556ecb4ca6dfa920806a1b0b", v.getSha1());
+		LocalDateTime created = v.getDateTimeCreated();
+		UserDefinedFileAttributeView xattrs = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+		assertTrue(xattrs.list().contains("meta.sha1"));
+		
+		// ...restored instead of hashing the file again (the value is faked to prove it)
+		xattrs.write("meta.sha1", StandardCharsets.UTF_8.encode("restored"));
+		v = Files.getFileAttributeView(metaFs.getPath(file.toString()), MetaDataView.class);
+		assertEquals("restored", v.getSha1());
+		assertEquals(created, v.getDateTimeCreated());
+		
+		// ...and discarded once the file is modified
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+		v = Files.getFileAttributeView(metaFs.getPath(file.toString()), MetaDataView.class);
+		assertEquals("79e7650c497eb5ab556ecb4ca6dfa920806a1b0b", v.getSha1());
+	}
+	
+	@Test
+	public void testXattrUnsupported() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("xattr.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> metaEnv = new HashMap<>();
+		metaEnv.put(MetaDataFilesystem.XATTR, "true");
+		try(MetaDataFilesystem metaFs = (MetaDataFilesystem)FileSystems.newFileSystem(URI.create("meta:" + zipUri), metaEnv)) {
+			MetaDataPath p = (MetaDataPath)metaFs.getPath("/IMG_3197.JPG");
+			// ...a no-op on stores without extended attributes
+			assertFalse(metaFs.isXattr(p.getDelegate()));
+			MetaDataView v = Files.getFileAttributeView(p, MetaDataView.class);
+			assertEquals("79e7650c497eb5ab556ecb4ca6dfa920806a1b0b", v.getSha1());
+			assertNotNull(v.getDateTimeCreated());
+			assertEquals("79e7650c497eb5ab556ecb4ca6dfa920806a1b0b", Files.getFileAttributeView(metaFs.getPath("/IMG_3197.JPG"), MetaDataView.class).getSha1());
+		}
+		
+		// ...while stores supporting them are used by the same file system
+		Path file = env.output("xattr/IMG_3197.JPG");
+		Files.createDirectories(file.getParent());
+		Files.copy(env.resource("IXUS40/IMG_3197.JPG"), file, StandardCopyOption.REPLACE_EXISTING);
+		MetaDataFilesystemProvider provider = (MetaDataFilesystemProvider)Paths.get(new URI("meta:" + file.toUri())).getFileSystem().provider();
+		MetaDataFilesystem metaFs = new MetaDataFilesystem(provider, file.getFileSystem(), metaEnv);
+		assertEquals(Files.getFileStore(file).supportsFileAttributeView("user"), metaFs.isXattr(file));
+		Path proc = Paths.get("/proc/self/status");
+		if(Files.exists(proc)) {
+			// ...another mount, answered for its own store
+			assertEquals(Files.getFileStore(proc.getParent()).supportsFileAttributeView("user"), metaFs.isXattr(proc));
+		}
+	}
+	
+	@Test
+	public void testDigestEncoding() throws URISyntaxException, IOException {
+		// md5 and crc32 values with leading zeros, which aren't padded, unlike sha1
+		Path file = env.output("digest.txt");
+		Files.write(file, "file 63".getBytes(StandardCharsets.US_ASCII));
+		MetaDataView v = Files.getFileAttributeView(Paths.get(new URI("meta:" + file.toUri())), MetaDataView.class);
+		assertEquals("ec1dd2dfaff40ade29f51053c77e4c3", v.getMd5());
+		assertEquals("44ad3cd", v.getCrc32());
+		assertEquals("15932d576a045448e9cd348ca278cd50d12b14cf", v.getSha1());
+		assertEquals(Long.toHexString(0L), DigestEngine.encode(Digest.CRC32, new byte[4]));
+	}
+	
+	@Test
+	public void testLateMetaData() throws URISyntaxException, IOException {
+		// xml with its dublin core title following the body text
+		Path file = env.output("late.xml");
+		Files.write(file, ("<?xml version=\"1.0\"?><doc xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+				+ "<p>Hello world</p><dc:title>Late Title</dc:title></doc>").getBytes(StandardCharsets.US_ASCII));
+		MetaDataView v = Files.getFileAttributeView(Paths.get(new URI("meta:" + file.toUri())), MetaDataView.class);
+		assertEquals("application/xml", v.getMimeType());
+		assertEquals("Late Title", v.read("title").get(0));
+	}
+	
+	@Test
+	public void testThumbnail() throws URISyntaxException, IOException {
+		MetaDataPath p = (MetaDataPath)Paths.get(new URI("meta:" + env.resource("IXUS40/IMG_3197.JPG").toUri()));
+		ByteBuffer thumbnail = p.getThumbnail();
+		assertNotNull(thumbnail);
+		assertTrue(thumbnail.isReadOnly());
+		assertTrue(thumbnail.remaining() > 0 && thumbnail.remaining() < 454150);
+		// ...a complete jpeg image
+		assertEquals((byte)0xff, thumbnail.get(0));
+		assertEquals((byte)0xd8, thumbnail.get(1));
+		assertEquals((byte)0xd9, thumbnail.get(thumbnail.limit() - 1));
+		
+		// ...same bytes through a channel
+		ByteBuffer b = ByteBuffer.allocate(thumbnail.remaining());
+		try(SeekableByteChannel channel = p.newThumbnailChannel()) {
+			assertEquals(thumbnail.remaining(), channel.size());
+			while(channel.read(b) >= 0);
+		}
+		b.flip();
+		assertEquals(thumbnail, b);
+		
+		// ...and from a zip file, which can't be mapped
+		URI zipUri = env.zip("thumbnail.zip", "IXUS40/IMG_3197.JPG");
+		try(MetaDataFilesystem metaFs = (MetaDataFilesystem)FileSystems.newFileSystem(URI.create("meta:" + zipUri), new HashMap<>())) {
+			assertEquals(thumbnail, ((MetaDataPath)metaFs.getPath("IMG_3197.JPG")).getThumbnail());
+		}
+		
+		MetaDataPath thm = (MetaDataPath)Paths.get(new URI("meta:" + env.resource("IXUS40/MVI_3198.THM").toUri()));
+		assertNotNull(thm.getThumbnail());
+		assertNull(((MetaDataPath)Paths.get(new URI("meta:" + env.resource("IXUS40/MVI_3198.AVI").toUri()))).getThumbnail());
+	}
+	
+	@Test
+	public void testSidecar() throws URISyntaxException, IOException {
+		// capture data of the video is read from the THM file next to it...
+		MetaDataView v = Files.getFileAttributeView(Paths.get(new URI("meta:" + env.resource("IXUS40/MVI_3198.AVI").toUri())), MetaDataView.class);
+		assertEquals("2011-08-14T09:35:52", v.getDateTimeCreated().toString());
+		assertEquals("Canon DIGITAL IXUS 40", v.getCamera());
+		assertTrue(v.getSidecar().getPath().endsWith("MVI_3198.THM"));
+		// ...without parsing the video
+		assertFalse(MetaDataView.Tier.PARSE == v.getTier());
+		
+		// ...or from an xmp sidecar
+		Path dir = env.output("sidecar");
+		Files.createDirectories(dir);
+		Files.write(dir.resolve("MVI_0001.MOV"), new byte[] { 0, 0, 0, 0x14, 'f', 't', 'y', 'p', 'q', 't', ' ', ' ' });
+		Files.write(dir.resolve("MVI_0001.xmp"), ("<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF><rdf:Description "
+				+ "exif:DateTimeOriginal=\"2014-04-26T10:15:30.25+02:00\" tiff:Make=\"Canon\"><tiff:Model>Canon EOS 70D</tiff:Model>"
+				+ "</rdf:Description></rdf:RDF></x:xmpmeta>").getBytes(StandardCharsets.UTF_8));
+		v = Files.getFileAttributeView(Paths.get(new URI("meta:" + dir.resolve("MVI_0001.MOV").toUri())), MetaDataView.class);
+		assertEquals(LocalDateTime.of(2014, 4, 26, 10, 15, 30, 250000000), v.getDateTimeCreated());
+		assertEquals("Canon EOS 70D", v.getCamera());
+	}
+	
+	@Test
+	public void testWatch() throws URISyntaxException, IOException, InterruptedException {
+		Path dir = env.output("watch");
+		Files.createDirectories(dir);
+		Path file = dir.resolve("notes.txt");
+		Files.write(file, "first".getBytes(StandardCharsets.UTF_8));
+		
+		MetaDataFilesystemProvider provider = (MetaDataFilesystemProvider)Paths.get(new URI("meta:" + file.toUri())).getFileSystem().provider();
+		try(MetaDataFilesystem metaFs = new MetaDataFilesystem(provider, file.getFileSystem(), new HashMap<>())) {
+			// events refer to meta data paths...
+			try(WatchService ws = metaFs.newWatchService()) {
+				Path metaDir = metaFs.getPath(dir.toString());
+				WatchKey key = metaDir.register(ws, StandardWatchEventKinds.ENTRY_CREATE);
+				assertEquals(metaDir, key.watchable());
+				Files.write(dir.resolve("other.txt"), "other".getBytes(StandardCharsets.UTF_8));
+				key = ws.poll(10, TimeUnit.SECONDS);
+				assertNotNull(key);
+				WatchEvent<?> e = key.pollEvents().get(0);
+				assertTrue(e.context() instanceof MetaDataPath);
+				assertEquals("other.txt", e.context().toString().replaceAll("^.*/", ""));
+			}
+			
+			// ...and cached meta data is invalidated internally
+			MetaDataPath p = (MetaDataPath)metaFs.getPath(file.toString());
+			MetaDataView v = Files.getFileAttributeView(p, MetaDataView.class);
+			String sha1 = v.getSha1();
+			metaFs.watch(metaFs.getPath(dir.toString()));
+			Files.write(file, "second".getBytes(StandardCharsets.UTF_8));
+			for(int i = 0; i < 100 && v == Files.getFileAttributeView(p, MetaDataView.class); i++) {
+				Thread.sleep(100);
+			}
+			MetaDataView modified = Files.getFileAttributeView(p, MetaDataView.class);
+			assertFalse(v == modified);
+			assertFalse(sha1.equals(modified.getSha1()));
+		}
+	}
 
 }
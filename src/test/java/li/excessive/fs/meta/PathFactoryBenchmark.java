@@ -0,0 +1,85 @@
+package li.excessive.fs.meta;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import li.excessive.fs.wrap.WrapFilesystem;
+import li.excessive.fs.wrap.WrapPath;
+
+/**
+ * compares wrapping delegate paths through the path factory of the file system with the
+ * reflective constructor lookup used before. not run as part of the tests, run the main method
+ * (with the test classpath) instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathFactoryBenchmark {
+
+	private MetaDataFilesystem fs = null;
+
+	private MetaDataPath path = null;
+
+	private Path delegate = null;
+
+	@Setup
+	public void setup() {
+		fs = new MetaDataFilesystem(new MetaDataFilesystemProvider(), FileSystems.getDefault(), new HashMap<>());
+		delegate = FileSystems.getDefault().getPath("src", "test", "resources", "IMG_1257.JPG");
+		path = (MetaDataPath)fs.wrap(delegate.getParent());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		fs.close();
+	}
+
+	/**
+	 * wrapping as done before, looking up the constructor of the class of the wrapping path
+	 */
+	@Benchmark
+	public WrapPath reflection() throws Exception {
+		Constructor<? extends WrapPath> c = path.getClass().getDeclaredConstructor(WrapFilesystem.class, Path.class);
+		return c.newInstance(fs, delegate);
+	}
+
+	@Benchmark
+	public WrapPath factory() {
+		return fs.wrap(delegate);
+	}
+
+	/**
+	 * resolving a path, i.e. wrapping plus the work of the delegate
+	 */
+	@Benchmark
+	public Path resolve() {
+		return path.resolve(delegate.getFileName());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PathFactoryBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
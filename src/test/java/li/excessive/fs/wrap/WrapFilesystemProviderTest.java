@@ -1,16 +1,50 @@
 package li.excessive.fs.wrap;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -71,6 +105,318 @@ public class WrapFilesystemProviderTest {
 //			assertTrue(Files.exists(target));			
 		}
 	}
+	
+	@Test
+	public void testPathMatcher() throws URISyntaxException, IOException {
+		Path dir = Paths.get(new URI("wrap:" + env.resource("IXUS40").toUri()));
+		PathMatcher matcher = dir.getFileSystem().getPathMatcher("glob:*.JPG");
+		assertTrue(matcher instanceof WrapPathMatcher);
+		assertTrue(matcher.matches(dir.getFileSystem().getPath("IMG_3197.JPG")));
+		assertFalse(matcher.matches(dir.getFileSystem().getPath("MVI_3198.AVI")));
+		
+		// pushed down to the delegate...
+		List<Path> jpgs = new ArrayList<>();
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir, (WrapPathMatcher)matcher)) {
+			ds.forEach(jpgs::add);
+		}
+		// ...which must give the same result as any other filter
+		List<Path> expected = new ArrayList<>();
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.JPG")) {
+			ds.forEach(expected::add);
+		}
+		assertFalse(jpgs.isEmpty());
+		assertEquals(expected.size(), jpgs.size());
+		for(Path p : jpgs) {
+			assertTrue(p instanceof WrapPath);
+			assertTrue(p.getFileName().toString().endsWith(".JPG"));
+		}
+		
+		// ...so only matching entries are wrapped
+		AtomicInteger wrapped = new AtomicInteger();
+		try(WrapFilesystem fs = new WrapFilesystem((WrapFilesystemProvider)dir.getFileSystem().provider(), FileSystems.getDefault(), new HashMap<>(), (f, d) -> {
+				wrapped.incrementAndGet();
+				return new WrapPath(f, d);
+			})) {
+			Path d = fs.getPath(((WrapPath)dir).getDelegate().toString());
+			wrapped.set(0);
+			List<Path> globbed = new ArrayList<>();
+			try(DirectoryStream<Path> ds = Files.newDirectoryStream(d, (WrapPathMatcher)fs.getPathMatcher("glob:*.JPG"))) {
+				ds.forEach(globbed::add);
+			}
+			assertEquals(jpgs.size(), globbed.size());
+			assertEquals(jpgs.size(), wrapped.get());
+		}
+		
+		PathMatcher regex = dir.getFileSystem().getPathMatcher("regex:MVI_.*");
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir, (WrapPathMatcher)regex)) {
+			for(Path p : ds) {
+				assertTrue(p.getFileName().toString().startsWith("MVI_"));
+			}
+		}
+	}
+	
+	@Test
+	public void testContentCache() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("cache.zip", "IXUS40/IMG_3197.JPG", "IXUS40/IMG_3199.JPG", "IXUS40/MVI_3198.AVI");
+		Map<String, Object> wrapEnv = new HashMap<>();
+		wrapEnv.put(WrapFilesystem.CACHE_SIZE, 1000 * 1000);
+		wrapEnv.put(WrapFilesystem.CACHE_MAX_ENTRY_SIZE, 1024 * 1024);
+		try(WrapFilesystem fs = (WrapFilesystem)FileSystems.newFileSystem(URI.create("wrap:" + zipUri), wrapEnv)) {
+			ContentCache cache = fs.getContentCache();
+			byte[] b = ((WrapPath)fs.getPath("IMG_3197.JPG")).getBytes();
+			assertEquals(454150, b.length);
+			// ...shared by different path instances of the same file
+			assertTrue(Arrays.equals(b, ((WrapPath)fs.getPath("/IMG_3197.JPG")).getBytes()));
+			assertEquals(1, cache.getHits());
+			assertEquals(454150, cache.getWeight());
+			
+			// ...files above the threshold are not cached
+			assertEquals(2549190, ((WrapPath)fs.getPath("MVI_3198.AVI")).getBytes().length);
+			assertEquals(1, cache.size());
+			
+			// ...least recently used entries are evicted once the budget is exceeded
+			((WrapPath)fs.getPath("IMG_3199.JPG")).getBytes();
+			assertEquals(1, cache.size());
+			assertEquals(581822, cache.getWeight());
+		}
+	}
+	
+	@Test
+	public void testEqualsAndIntern() throws URISyntaxException, IOException {
+		Path a = Paths.get(new URI("wrap:" + env.resource("IXUS40/IMG_3197.JPG").toUri()));
+		Path b = Paths.get(new URI("wrap:" + env.resource("IXUS40/IMG_3197.JPG").toUri()));
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertEquals(a.getParent(), b.getParent());
+		assertFalse(a.equals(Paths.get(new URI("wrap:" + env.resource("IXUS40/IMG_3199.JPG").toUri()))));
+		Set<Path> set = new HashSet<>(Arrays.asList(a, b));
+		assertEquals(1, set.size());
+		
+		URI zipUri = env.zip("intern.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> wrapEnv = new HashMap<>();
+		wrapEnv.put(WrapFilesystem.INTERN, true);
+		try(WrapFilesystem fs = (WrapFilesystem)FileSystems.newFileSystem(URI.create("wrap:" + zipUri), wrapEnv)) {
+			assertTrue(fs.isInterning());
+			Path p = fs.getPath("/IMG_3197.JPG");
+			// ...the same instance, however the path is obtained
+			assertTrue(p == fs.getPath("/IMG_3197.JPG"));
+			try(DirectoryStream<Path> ds = Files.newDirectoryStream(p.getParent())) {
+				assertTrue(p == ds.iterator().next());
+			}
+		}
+	}
+
+	
+	@Test
+	public void testRegistry() throws URISyntaxException, IOException, InterruptedException, ExecutionException {
+		URI zipUri = env.zip("registry.zip", "IXUS40/IMG_3197.JPG");
+		try(WrapFilesystem fs = (WrapFilesystem)FileSystems.newFileSystem(URI.create("wrap:" + zipUri), new HashMap<>())) {
+			// ...paths obtained through the provider belong to the file system created
+			Path p = fs.getPath("/IMG_3197.JPG");
+			assertTrue(fs == Paths.get(p.toUri()).getFileSystem());
+			assertTrue(fs == FileSystems.newFileSystem(URI.create("wrap:" + zipUri), new HashMap<>()));
+			// ...but it can't take the options of another env
+			Map<String, Object> wrapEnv = new HashMap<>();
+			wrapEnv.put(WrapFilesystem.PREFETCH, true);
+			try {
+				FileSystems.newFileSystem(URI.create("wrap:" + zipUri), wrapEnv);
+				fail();
+			} catch (FileSystemAlreadyExistsException e) {
+				// expected
+			}
+			
+			URI uri = new URI("wrap:" + env.resource("IXUS40/IMG_3197.JPG").toUri());
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<FileSystem>> l = new ArrayList<>();
+				for(int i = 0; i < 64; i++) {
+					l.add(pool.submit(() -> Paths.get(uri).getFileSystem()));
+				}
+				FileSystem first = l.get(0).get();
+				for(Future<FileSystem> f : l) {
+					assertTrue(first == f.get());
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	
+	@Test
+	public void testPrefetch() throws URISyntaxException, IOException {
+		URI zipUri = env.zip("prefetch.zip", "IXUS40/IMG_3197.JPG");
+		Map<String, Object> wrapEnv = new HashMap<>();
+		wrapEnv.put(WrapFilesystem.PREFETCH, true);
+		try(WrapFilesystem fs = (WrapFilesystem)FileSystems.newFileSystem(URI.create("wrap:" + zipUri), wrapEnv)) {
+			assertTrue(fs.isPrefetching());
+			WrapPath p = null;
+			try(DirectoryStream<Path> ds = Files.newDirectoryStream(fs.getPath("/"))) {
+				p = (WrapPath)ds.iterator().next();
+			}
+			BasicFileAttributes attrs = p.getCachedAttributes();
+			assertNotNull(attrs);
+			assertEquals(Files.size(env.resource("IXUS40/IMG_3197.JPG")), attrs.size());
+			// ...answered from the attributes captured while listing
+			assertTrue(attrs == Files.readAttributes(p, BasicFileAttributes.class));
+			assertTrue(Files.isRegularFile(p));
+			// ...and dropped once modified
+			Files.write(p, new byte[] { 1, 2, 3 });
+			assertNull(p.getCachedAttributes());
+			assertEquals(3, Files.size(p));
+			// paths not obtained by listing have none
+			assertNull(((WrapPath)fs.getPath("/IMG_3197.JPG")).getCachedAttributes());
+		}
+	}
+
+	
+	@Test
+	public void testWalk() throws URISyntaxException, IOException, InterruptedException, ExecutionException {
+		Path resources = Paths.get(new URI("wrap:" + env.resource("").toUri()));
+		WrapFilesystem fs = (WrapFilesystem)resources.getFileSystem();
+		Set<Path> expected = new HashSet<>();
+		try(Stream<Path> s = Files.walk(resources)) {
+			s.forEach(expected::add);
+		}
+		assertTrue(expected.size() > 3);
+		assertEquals(expected, fs.walk(resources, Integer.MAX_VALUE).collect(Collectors.toSet()));
+		
+		// ...split at sub directories on a pool of its own
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<WrapPath> l = pool.submit(() -> fs.walk(resources, Integer.MAX_VALUE).parallel().collect(Collectors.toList())).get();
+			assertEquals(expected.size(), l.size());
+			assertEquals(expected, new HashSet<>(l));
+		} finally {
+			pool.shutdown();
+		}
+		
+		try(Stream<Path> s = Files.walk(resources, 1)) {
+			assertEquals(s.collect(Collectors.toSet()), fs.walk(resources, 1).collect(Collectors.toSet()));
+		}
+		assertEquals(1, fs.walk(resources, 0).count());
+	}
+
+	@Test
+	public void testWalkParallel() throws URISyntaxException, IOException, InterruptedException, ExecutionException {
+		for(int i = 0; i < 8; i++) {
+			Path dir = Files.createDirectories(env.output("walk/" + i));
+			for(int j = 0; j < 4; j++) {
+				Files.write(dir.resolve(j + ".txt"), new byte[] { (byte)j });
+			}
+		}
+		Path root = Paths.get(new URI("wrap:" + env.output("walk").toUri()));
+		WrapFilesystem fs = (WrapFilesystem)root.getFileSystem();
+		
+		// ...the root splits before it is advanced, so sub trees are walked by several workers
+		Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+		AtomicInteger count = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(8);
+		try {
+			pool.submit(() -> fs.walk(root, Integer.MAX_VALUE).parallel().forEach(p -> {
+				threads.add(Thread.currentThread().getName());
+				count.incrementAndGet();
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			})).get();
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(1 + 8 + 8 * 4, count.get());
+		assertTrue(threads.toString(), threads.size() > 1);
+	}
+	
+	
+	@Test
+	public void testFileChannels() throws URISyntaxException, IOException, InterruptedException, ExecutionException {
+		byte[] expected = Files.readAllBytes(env.resource("IXUS40/IMG_3197.JPG"));
+		Path p = Paths.get(new URI("wrap:" + env.resource("IXUS40/IMG_3197.JPG").toUri()));
+		try(FileChannel c = FileChannel.open(p, StandardOpenOption.READ)) {
+			assertEquals(expected.length, c.size());
+			assertEquals(expected[100], c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()).get(100));
+		}
+		try(AsynchronousFileChannel c = AsynchronousFileChannel.open(p, StandardOpenOption.READ)) {
+			ByteBuffer b = ByteBuffer.allocate(16);
+			assertEquals(16, (int)c.read(b, 100).get());
+			assertEquals(expected[100], b.get(0));
+		}
+		
+		URI zipUri = env.zip("channels.zip", "IXUS40/IMG_3197.JPG");
+		try(WrapFilesystem fs = (WrapFilesystem)FileSystems.newFileSystem(URI.create("wrap:" + zipUri), new HashMap<>())) {
+			Path z = fs.getPath("/IMG_3197.JPG");
+			try(FileChannel c = FileChannel.open(z, StandardOpenOption.READ)) {
+				ByteBuffer b = ByteBuffer.allocate(16);
+				assertEquals(16, c.read(b, 1000));
+				assertEquals(expected[1000], b.get(0));
+			}
+			// ...zipfs lacks asynchronous channels
+			AsynchronousFileChannel async = AsynchronousFileChannel.open(z, StandardOpenOption.READ);
+			try(AsynchronousFileChannel c = async) {
+				ByteBuffer b = ByteBuffer.allocate(16);
+				assertEquals(16, (int)c.read(b, 2000).get());
+				assertEquals(expected[2000], b.get(0));
+			}
+			// ...once closed, operations fail as closed rather than rejected by the executor
+			try {
+				async.read(ByteBuffer.allocate(16), 0).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ClosedChannelException);
+			}
+			CompletableFuture<Throwable> failed = new CompletableFuture<>();
+			async.read(ByteBuffer.allocate(16), 0, null, new CompletionHandler<Integer, Void>() {
+				@Override
+				public void completed(Integer result, Void attachment) {
+					failed.complete(null);
+				}
+				@Override
+				public void failed(Throwable t, Void attachment) {
+					failed.complete(t);
+				}
+			});
+			assertTrue(failed.get() instanceof ClosedChannelException);
+			// file channel on top of a byte channel that can't be positioned
+			try(FileChannel c = new WrapFileChannel(((WrapPath)z).getDelegate(), Collections.singleton(StandardOpenOption.READ))) {
+				assertEquals(expected.length, c.size());
+				ByteBuffer b = ByteBuffer.allocate(1);
+				c.read(b, 3000);
+				assertEquals(expected[3000], b.get(0));
+				b.clear();
+				c.read(b, 10);
+				assertEquals(expected[10], b.get(0));
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				assertEquals(expected.length, c.transferTo(0, c.size(), Channels.newChannel(out)));
+				assertArrayEquals(expected, out.toByteArray());
+				assertEquals(0, c.position());
+			}
+		}
+	}
+
+	
+	@Test
+	public void testStamps() throws IOException {
+		Map<String, Object> wrapEnv = new HashMap<>();
+		wrapEnv.put(WrapFilesystem.STAMPS_MAX, 2);
+		try(WrapFilesystem fs = new WrapFilesystem(new WrapFilesystemProvider(), FileSystems.getDefault(), wrapEnv)) {
+			Path a = env.resource("IXUS40/IMG_3197.JPG");
+			Path b = env.resource("IXUS40/IMG_3199.JPG");
+			Path c = env.resource("IXUS40/MVI_3198.AVI");
+			long initial = fs.getStamp(a);
+			fs.invalidate(a, false);
+			long modified = fs.getStamp(a);
+			assertTrue(modified != initial);
+			fs.invalidate(b, true);
+			assertEquals(modified, fs.getStamp(a));
+			// ...exceeding the maximum outdates all stamps at once instead of keeping them
+			fs.invalidate(c, false);
+			assertTrue(fs.getStamp(a) > modified);
+			assertEquals(fs.getStamp(a), fs.getStamp(b));
+			assertEquals(fs.getStamp(a), fs.getStamp(c));
+		}
+	}
 
 
 }